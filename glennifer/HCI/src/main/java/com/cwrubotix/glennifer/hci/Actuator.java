@@ -1,7 +1,6 @@
 package com.cwrubotix.glennifer.hci;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class Actuator {
 	
@@ -47,8 +46,11 @@ public class Actuator {
 	// Chancing the data in the config after initialization may cause unwanted consequences
 	public final ActuatorConfig config;
 	
-	// Temporary storage for the update() function
-	private HashMap<Integer,ArrayList<Double>> tempData = new HashMap<Integer, ArrayList<Double>>();
+	// Feedback types, cached since values() copies the array every call
+	private static final FeedbackType[] FEEDBACK_TYPES = FeedbackType.values();
+
+	// Temporary storage for the update() function, indexed by feedback type ID
+	private double[][] tempData = new double[FEEDBACK_TYPES.length][7];
 	// Output type of this actuator
 	private OutputType outputType;
 	
@@ -58,10 +60,8 @@ public class Actuator {
 	 */
 	public void update() {
 		// Clear the temporary data holder
-		for(FeedbackType f: FeedbackType.values()) {
-			tempData.get(f.id).clear();
-			for(int i = 0; i < 7; i++)
-				tempData.get(f.id).add(0.0);
+		for(FeedbackType f: FEEDBACK_TYPES) {
+			Arrays.fill(tempData[f.id], 0.0);
 		}
 		long now = System.currentTimeMillis();
 		// TODO
@@ -73,10 +73,6 @@ public class Actuator {
 	 * @param iface The interface that controls this actuator
 	 */
 	Actuator(ActuatorConfig config) {
-		// Initialize the temporary data holder
-		for(FeedbackType f: FeedbackType.values()) {
-			tempData.put(f.id, new ArrayList<Double>());
-		}
 		this.config = config;
 	}
 	
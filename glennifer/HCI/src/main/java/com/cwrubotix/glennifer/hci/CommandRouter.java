@@ -0,0 +1,101 @@
+package com.cwrubotix.glennifer.hci;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.util.HashMap;
+
+/**
+ * Resolves AMQP routing keys to command handlers.
+ * Handlers are registered against dot separated patterns, where a "*" segment matches any one
+ * segment, and stored in a trie. A routing key resolves to the handler of the deepest pattern
+ * that matches its leading segments, so trailing segments are ignored.
+ * Resolved keys are cached by the full key string, so the trie is only walked the first time a
+ * key is seen and dispatching a known key is a single hash lookup.
+ * Not thread safe; AMQP delivers a channel's messages on one thread.
+ */
+class CommandRouter {
+	// Bounds the cache in case something publishes lots of distinct keys
+	private static final int MAX_CACHED_KEYS = 1024;
+
+	interface Handler {
+		void handle(byte[] body) throws InvalidProtocolBufferException;
+	}
+
+	private static class Node {
+		final HashMap<String, Node> children = new HashMap<>();
+		Handler handler;
+	}
+
+	// Cached in place of null for keys that don't resolve
+	private static final Handler UNROUTABLE = body -> {};
+
+	private final Node root = new Node();
+	private final HashMap<String, Handler> cache = new HashMap<>();
+
+	/**
+	 * Registers a handler
+	 * @param pattern Dot separated routing key, "*" matches any one segment
+	 * @param handler Called with the message body of every key the pattern resolves
+	 */
+	void register(String pattern, Handler handler) {
+		Node node = root;
+		for (String segment : pattern.split("\\.")) {
+			node = node.children.computeIfAbsent(segment, s -> new Node());
+		}
+		if (node.handler != null) {
+			throw new IllegalArgumentException("Routing key registered twice: " + pattern);
+		}
+		node.handler = handler;
+		cache.clear();
+	}
+
+	/**
+	 * Passes the body to the handler for the routing key
+	 * @return false if no handler matches the key
+	 */
+	boolean dispatch(String routingKey, byte[] body) throws InvalidProtocolBufferException {
+		Handler handler = cache.get(routingKey);
+		if (handler == null) {
+			handler = resolve(routingKey);
+			if (cache.size() < MAX_CACHED_KEYS) {
+				cache.put(routingKey, handler);
+			}
+		}
+		if (handler == UNROUTABLE) {
+			return false;
+		}
+		handler.handle(body);
+		return true;
+	}
+
+	private Handler resolve(String routingKey) {
+		Handler found = resolve(root, routingKey, 0);
+		return found == null ? UNROUTABLE : found;
+	}
+
+	/**
+	 * @return The handler of the deepest match below node for the key from start on, preferring
+	 * exact segments to wildcards, or null if nothing matches
+	 */
+	private static Handler resolve(Node node, String routingKey, int start) {
+		if (start > routingKey.length()) {
+			return node.handler;
+		}
+		int end = routingKey.indexOf('.', start);
+		if (end < 0) {
+			end = routingKey.length();
+		}
+		Handler found = null;
+		Node exact = node.children.get(routingKey.substring(start, end));
+		if (exact != null) {
+			found = resolve(exact, routingKey, end + 1);
+		}
+		if (found == null) {
+			Node wildcard = node.children.get("*");
+			if (wildcard != null) {
+				found = resolve(wildcard, routingKey, end + 1);
+			}
+		}
+		return found != null ? found : node.handler;
+	}
+}
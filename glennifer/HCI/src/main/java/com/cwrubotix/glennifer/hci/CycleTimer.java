@@ -0,0 +1,110 @@
+package com.cwrubotix.glennifer.hci;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-period scheduler for the HCI control loop.
+ * Deadlines are kept on an absolute grid, so time lost in one cycle (serial latency, GC)
+ * does not push every later cycle back. Deadlines that were missed outright are dropped
+ * rather than run back-to-back to catch up.
+ */
+class CycleTimer {
+	// Below this, park instead of sleep so we don't overshoot the deadline by a scheduler tick
+	private static final long SPIN_THRESHOLD_NS = TimeUnit.MILLISECONDS.toNanos(2);
+
+	private final int rateHz;
+	private final long periodNanos;
+	// Absolute System.nanoTime() of the next cycle start, 0 before the first cycle
+	private long nextDeadline = 0;
+
+	// Statistics since the last report
+	private long cycles;
+	private long overruns;
+	private long missedDeadlines;
+	private long totalJitterNanos;
+	private long maxJitterNanos;
+
+	CycleTimer(int rateHz) {
+		if(rateHz <= 0) {
+			throw new IllegalArgumentException("Cycle rate must be positive: " + rateHz);
+		}
+		this.rateHz = rateHz;
+		this.periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+	}
+
+	/**
+	 * Blocks until the start of the next cycle.
+	 * @return the number of deadlines missed since the previous cycle, 0 if it finished in time
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	int awaitNextCycle() throws InterruptedException {
+		long now = System.nanoTime();
+		if(nextDeadline == 0) {
+			nextDeadline = now;
+		}
+		int missed = 0;
+		long late = now - nextDeadline;
+		if(late < 0) {
+			sleepUntil(nextDeadline);
+			late = Math.max(0, System.nanoTime() - nextDeadline);
+		} else if(late >= periodNanos) {
+			// Previous cycle overran; skip the deadlines we already blew through
+			missed = (int)Math.min(Integer.MAX_VALUE, late / periodNanos);
+			overruns++;
+			missedDeadlines += missed;
+			nextDeadline += missed * periodNanos;
+			late -= missed * periodNanos;
+		}
+		cycles++;
+		totalJitterNanos += late;
+		if(late > maxJitterNanos) {
+			maxJitterNanos = late;
+		}
+		nextDeadline += periodNanos;
+		return missed;
+	}
+
+	private static void sleepUntil(long deadline) throws InterruptedException {
+		long remaining;
+		while((remaining = deadline - System.nanoTime()) > 0) {
+			if(remaining > SPIN_THRESHOLD_NS) {
+				Thread.sleep(TimeUnit.NANOSECONDS.toMillis(remaining - SPIN_THRESHOLD_NS / 2));
+			} else {
+				LockSupport.parkNanos(remaining);
+				if(Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true once roughly ten seconds' worth of cycles have run since the last report
+	 */
+	boolean reportDue() {
+		return cycles >= 10L * rateHz;
+	}
+
+	/**
+	 * Summarizes timing since the last report and resets the statistics
+	 * @return human readable summary of jitter and overruns
+	 */
+	String report() {
+		String s = String.format("HCI loop @ %d Hz: %d cycles, mean jitter %d us, max jitter %d us, %d overruns (%d deadlines missed)",
+				rateHz, cycles,
+				cycles == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalJitterNanos / cycles),
+				TimeUnit.NANOSECONDS.toMicros(maxJitterNanos),
+				overruns, missedDeadlines);
+		cycles = 0;
+		overruns = 0;
+		missedDeadlines = 0;
+		totalJitterNanos = 0;
+		maxJitterNanos = 0;
+		return s;
+	}
+
+	int getRateHz() {
+		return rateHz;
+	}
+}
@@ -1,12 +1,15 @@
 package com.cwrubotix.glennifer.hci;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.sun.org.apache.xalan.internal.xsltc.trax.TemplatesImpl;
 import jssc.SerialPort;
@@ -19,6 +22,9 @@ public class HardwareControlInterface implements Runnable {
 	public static final byte COMMAND_READ_SENSORS = 0x01;
 	public static final byte COMMAND_SET_OUTPUTS = 0x02;
 	private static final int SERIAL_TIMEOUT_MS = 2000;
+	public static final int DEFAULT_CYCLE_RATE_HZ = 200;
+	// Actuator IDs are one byte on the wire
+	private static final int MAX_ACTUATORS = 256;
 	
 	// The types of actuations and constraints that can be made
 	enum ActuationType {
@@ -30,24 +36,62 @@ public class HardwareControlInterface implements Runnable {
 		Temp;
 	}
 
-	// Queue of actuations to be checked in
-	private LinkedBlockingQueue<Actuation> actuationQueue = new LinkedBlockingQueue<Actuation>();
+	// Latest actuation waiting to be checked in for each actuator ID.
+	// A newer actuation for the same actuator replaces the waiting one, so bursts of commands
+	// collapse into one target per cycle instead of piling up.
+	private final AtomicReferenceArray<Actuation> pendingActuations = new AtomicReferenceArray<>(MAX_ACTUATORS);
+	// Bit set of the actuator IDs that may have a pending actuation, 64 IDs per word
+	private final AtomicLongArray pendingMask = new AtomicLongArray(MAX_ACTUATORS / 64);
 	// Queue of sensor updates detected that can be consumed externally for sending
 	private LinkedBlockingQueue<SensorData> sensorUpdateQueue = new LinkedBlockingQueue<>();
 	// Hashmap of actuators to their ID's
 	private HashMap<Integer, Actuator> actuators = new HashMap<Integer,Actuator>();
-	// Hashmap of sensors to their ID's
-	private HashMap<Integer, Sensor> sensors = new HashMap<Integer, Sensor>();
-	// List of active actuation jobs
-	private ArrayList<Actuation> activeActuations = new ArrayList<Actuation>();
+	// The same actuators as a plain array for the control loop
+	private Actuator[] actuatorList = new Actuator[0];
+	// Sensors indexed by their ID's
+	private Sensor[] sensors = new Sensor[256];
+	// IDs of the registered sensors, in the order they are requested
+	private int[] sensorIds = new int[0];
+	// Prebuilt read sensors request for sensorIds
+	private byte[] readSensorsPacket = SerialPacket.frame(COMMAND_READ_SENSORS, 0);
+	// Set outputs requests indexed by number of actuations, built the first time each size is needed
+	private ByteBuffer[] setOutputsPackets = new ByteBuffer[0xFF / 3 + 1];
+	// Actuations checked in this cycle, at most one per actuator
+	private final Actuation[] activeActuations = new Actuation[MAX_ACTUATORS];
+	private int activeCount = 0;
 	// List of active coordinated actuation jobs
 	private SerialPort port;
+	// Fixed-rate scheduler for the control loop
+	private final CycleTimer cycleTimer;
+	// Pipelined link to the arduino on port, created when the loop starts
+	private SerialTransport transport;
 	/**
-	 * Queue's an actuation to be checked in
+	 * Queue's an actuation to be checked in at the start of the next cycle.
+	 * Replaces any actuation still waiting for the same actuator if it is an override,
+	 * otherwise it is dropped when one is already waiting. Safe to call from any thread.
 	 * @param actuation The actuation job that is to be checked in
+	 * @return false if the actuation was rejected
 	 */
-	public void queueActuation(Actuation actuation) {
-		actuationQueue.add(actuation);
+	public boolean queueActuation(Actuation actuation) {
+		int ID = actuation.actuatorID;
+		if(ID < 0 || ID >= MAX_ACTUATORS) {
+			System.out.println("Could not add actuation to actuator ID: " + ID);
+			return false;
+		}
+		if(actuation.type != ActuationType.AngVel && actuation.type != ActuationType.LinVel) {
+			// Only support velocities at this moment
+			System.out.println("We only support velocity targets at the moment");
+			return false;
+		}
+		if(actuation.override) {
+			pendingActuations.set(ID, actuation);
+		} else if(!pendingActuations.compareAndSet(ID, null, actuation)) {
+			System.out.println("Could not add actuation to actuator ID: " + ID);
+			return false;
+		}
+		// Mark it after storing it so the control loop can't clear the mark and miss the actuation
+		pendingMask.getAndAccumulate(ID >>> 6, 1L << (ID & 63), (word, bit) -> word | bit);
+		return true;
 	}
 
 	/**
@@ -57,6 +101,19 @@ public class HardwareControlInterface implements Runnable {
 	public SensorData pollSensorUpdate() throws InterruptedException {
 		return sensorUpdateQueue.poll(1000000, TimeUnit.DAYS);
 	}
+
+	/**
+	 * Blocking wait until there are sensor updates to be consumed, and then pop all of them up to the
+	 * end of one read sensors cycle.
+	 * @param updates the list to add the sensor data to
+	 */
+	public void pollSensorUpdates(List<SensorData> updates) throws InterruptedException {
+		SensorData sensorData;
+		do {
+			sensorData = pollSensorUpdate();
+			updates.add(sensorData);
+		} while (!sensorData.endOfCycle);
+	}
 	
 	/**
 	 * Get the sensor object from its ID
@@ -64,7 +121,7 @@ public class HardwareControlInterface implements Runnable {
 	 * @return The sensor object
 	 */
 	public Sensor getSensorFromID(int ID) {
-		return sensors.get(ID);
+		return sensors[ID & 0xFF];
 	}
 	
 	/**
@@ -82,6 +139,10 @@ public class HardwareControlInterface implements Runnable {
 			return 1;
 		} else {
 			actuators.put(ID, actuator);
+			Actuator[] list = new Actuator[actuatorList.length + 1];
+			System.arraycopy(actuatorList, 0, list, 0, actuatorList.length);
+			list[actuatorList.length] = actuator;
+			actuatorList = list;
 			return 0;
 		}
 	}
@@ -94,33 +155,60 @@ public class HardwareControlInterface implements Runnable {
 	 */
 	public int addSensor(SensorConfig config) {
 		Sensor sensor = new Sensor(config);
-		int ID = config.ID;
+		int ID = config.ID & 0xFF;
 
-		if(sensors.containsKey(ID)) {
+		if(sensors[ID] != null) {
 			return 1;
 		} else {
-			sensors.put(ID, sensor);
+			sensors[ID] = sensor;
+			// Rebuild the read request once here rather than every cycle
+			int[] ids = new int[sensorIds.length + 1];
+			System.arraycopy(sensorIds, 0, ids, 0, sensorIds.length);
+			ids[sensorIds.length] = ID;
+			byte[] packet = SerialPacket.frame(COMMAND_READ_SENSORS, ids.length);
+			for(int i = 0; i < ids.length; i++) {
+				packet[SerialPacket.HEADER_SIZE + i] = (byte)ids[i];
+			}
+			sensorIds = ids;
+			readSensorsPacket = packet;
 			return 0;
 		}
 	}
 	
 	@Override
 	public void run() {
+		// Whether the sensor read was skipped last cycle to catch up
+		boolean skippedRead = false;
+		transport = new SerialTransport(port, SERIAL_TIMEOUT_MS, SerialTransport.DEFAULT_WINDOW);
 		while(true) {
 			try {
-				// Read sensors
-				 readSensors(); //TODO
-				// Update actuator data
-				for(int id:actuators.keySet()) {
-					actuators.get(id).update();
+				// Wait for the start of this cycle
+				int missed;
+				try {
+					missed = cycleTimer.awaitNextCycle();
+				} catch (InterruptedException e) {
+					return;
 				}
-				// Process queue of actuations and coordinated actuations
-				for(Actuation a:actuationQueue) {
-					if(!addActuation(a)) {
-						// Send message that actuation was unsuccessful
-						System.out.println("Could not add actuation to actuator ID: " + a.actuatorID);
-					}
+				if(cycleTimer.reportDue()) {
+					System.out.println(cycleTimer.report());
+				}
+				// Request sensors. The reply is collected after the outputs are sent,
+				// so both requests are on the wire back to back.
+				// If the previous cycle overran, get the outputs out first and read next cycle,
+				// but never skip two reads in a row
+				long readSequence = -1;
+				if(missed == 0 || skippedRead) {
+					readSequence = requestSensors();
+					skippedRead = false;
+				} else {
+					skippedRead = true;
 				}
+				// Update actuator data
+				for(Actuator actuator:actuatorList) {
+					actuator.update();
+				}
+				// Check in the actuations queued since last cycle
+				takePendingActuations();
 				// Calculate errors in actuation targets with actuator data
 				
 				// PID
@@ -130,14 +218,20 @@ public class HardwareControlInterface implements Runnable {
 				// PID
 				calcOutputs();
 				// Set outputs
-				setOutputs();
-				try {
-					Thread.sleep(1);
-				} catch (InterruptedException e) {
-					return;
+				long outputSequence = sendOutputs();
+				// Collect the replies in the order they were requested
+				if(readSequence >= 0) {
+					handleSensorsReply(transport.receive(readSequence));
+				}
+				if(outputSequence >= 0) {
+					handleOutputsReply(transport.receive(outputSequence));
 				}
+			} catch(InterruptedException e) {
+				transport.close();
+				return;
 			} catch(SerialPortException | SerialPortTimeoutException e) {
 				e.printStackTrace();
+				transport.close();
 				try {
 					port.closePort();
 				} catch (SerialPortException e2) {
@@ -163,153 +257,153 @@ public class HardwareControlInterface implements Runnable {
 					}	
 					break;
 				}
+				transport = new SerialTransport(port, SERIAL_TIMEOUT_MS, SerialTransport.DEFAULT_WINDOW);
 			}
 		}
 	}
 	
 	/**
-	 * Adds an Actuation 
-	 * @param act
-	 * @return
+	 * Moves the latest pending actuation for each actuator into activeActuations
 	 */
-	private boolean addActuation(Actuation act) {
-		if(!act.type.equals(ActuationType.AngVel) && !act.type.equals(ActuationType.LinVel)) {
-			// Only support velocities at this moment
-			System.out.println("We only support velocity targets at the moment");
-			return false;
-		}
-		// For all active actuations
-		Iterator<Actuation> ita = activeActuations.iterator();
-		while(ita.hasNext()) {
-			Actuation a = ita.next();
-			// If target is already set and override, remove it, otherwise return false
-			if(a.actuatorID == act.actuatorID) {
-				if(act.override) {
-					ita.remove();
-				} else {
-					return false;
+	private void takePendingActuations() {
+		for(int word = 0; word < pendingMask.length(); word++) {
+			long bits = pendingMask.getAndSet(word, 0);
+			while(bits != 0) {
+				int ID = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				Actuation act = pendingActuations.getAndSet(ID, null);
+				// Already taken last cycle if it was stored after that cycle's mask was cleared
+				if(act != null) {
+					activeActuations[activeCount++] = act;
 				}
 			}
 		}
-		// If no conflict or override, add it
-		activeActuations.add(act);
-		actuationQueue.remove(act);
-		return true;
 	}
-	
+
 	private void calcOutputs() {
-		for(int i = 0; i < activeActuations.size(); i++) {
-			activeActuations.get(i).currentOutput = (int) (activeActuations.get(i).targetValue/**actuators.get(activeActuations.get(i).actuatorID).config.maxOutput*/);
+		for(int i = 0; i < activeCount; i++) {
+			activeActuations[i].currentOutput = (int) (activeActuations[i].targetValue/**actuators.get(activeActuations[i].actuatorID).config.maxOutput*/);
 		}
 	}
 	
-	private boolean setOutputs() throws SerialPortException, SerialPortTimeoutException {
-		if(activeActuations.isEmpty()) {
-			return true;
+	/**
+	 * Sends the active actuations to the arduino without waiting for the reply
+	 * @return The sequence number of the request, or -1 if there was nothing to send
+	 */
+	private long sendOutputs() throws SerialPortException, SerialPortTimeoutException, InterruptedException {
+		if(activeCount == 0) {
+			return -1;
 		}
-		// Allocate byte array for the data in the request
-		byte[] data = new byte[activeActuations.size()*3];
-		// Generate data array for request
-		// Each actuator ID is 2 bytes, each output is 2 bytes
-		// Conversion to short is not checked
-		for(int i = 0; i < activeActuations.size(); i++) {
-			Actuation activeActuation = activeActuations.get(i);
-			byte actuatorIdShort = (byte)activeActuation.actuatorID;
-			short currentOutputShort = (short)activeActuation.currentOutput;
-			data[3*i] = actuatorIdShort;
-			data[3*i+1] = (byte)(currentOutputShort >>> 8);
-			data[3*i+2] = (byte)(currentOutputShort);
-			System.out.println(data[3*i]);
-			System.out.println(data[3*i+1]);
-			System.out.println(data[3*i+2]);
-			//System.out.println("Setting output: " + currentOutputShort + " actuator ID: " + actuatorIdShort);
+		int count = activeCount;
+		if(count >= setOutputsPackets.length) {
+			System.out.println("Too many actuations for one packet, dropping " + (count - setOutputsPackets.length + 1));
+			count = setOutputsPackets.length - 1;
 		}
-		activeActuations.clear();
-		sendMessage(new SerialPacket(COMMAND_SET_OUTPUTS,data));
-		// Get the response
-		SerialPacket response = readMessage();
-		if(response.command != COMMAND_SET_OUTPUTS) {
-			System.out.println("Invalid set outputs response - likely failed to set outputs");
-			return false;
+		// Reuse the packet for this many actuations
+		ByteBuffer packet = setOutputsPackets[count];
+		if(packet == null) {
+			packet = ByteBuffer.wrap(SerialPacket.frame(COMMAND_SET_OUTPUTS, count * 3));
+			setOutputsPackets[count] = packet;
 		}
-		else {
-			/*System.out.print("Set outputs response: ");
-			for (byte dataByte : response.data) {
-				System.out.print(dataByte);
-				System.out.print(" ");
-			}*/
+		packet.clear();
+		packet.position(SerialPacket.HEADER_SIZE);
+		// Fill in the body
+		// Each actuator ID is 1 byte, each output is 2 bytes (big endian)
+		// Conversion to short is not checked
+		for(int i = 0; i < count; i++) {
+			Actuation activeActuation = activeActuations[i];
+			packet.put((byte)activeActuation.actuatorID);
+			packet.putShort((short)activeActuation.currentOutput);
+			//System.out.println("Setting output: " + activeActuation.currentOutput + " actuator ID: " + activeActuation.actuatorID);
 		}
+		Arrays.fill(activeActuations, 0, activeCount, null);
+		activeCount = 0;
+		return transport.send(packet.array());
+	}
+
+	private boolean handleOutputsReply(byte[] body) {
+		/*System.out.print("Set outputs response: ");
+		for (byte dataByte : body) {
+			System.out.print(dataByte);
+			System.out.print(" ");
+		}*/
 		return true;
 	}
 	
-	private boolean readSensors() throws SerialPortException, SerialPortTimeoutException {
-		if(sensors.isEmpty()) {
+	/**
+	 * Asks the arduino for all sensor values without waiting for the reply
+	 * @return The sequence number of the request, or -1 if there are no sensors
+	 */
+	private long requestSensors() throws SerialPortException, SerialPortTimeoutException, InterruptedException {
+		if(sensorIds.length == 0) {
 			System.out.println("Sensor list is empty");
-			return true;
+			return -1;
 		}
-		// Get list of sensor IDs
-		Integer[] ids = sensors.keySet().toArray(new Integer[sensors.keySet().size()]);
-		// Allocate byte array for the data in the request
-		byte[] data = new byte[ids.length];
-		// Generate data array for request
-		// Each sensor ID is 2 bytes
-		for(int i = 0; i < ids.length; i++) {
-			data[i] = (byte)(ids[i].intValue());
-		}
-		// Send message, prepares it as per the interface
-		sendMessage(new SerialPacket(COMMAND_READ_SENSORS,data));
-		// Get the response
-		SerialPacket response = readMessage();
+		// The request only changes when sensors are added
+		return transport.send(readSensorsPacket);
+	}
+
+	boolean handleSensorsReply(byte[] body) {
 		long t = System.currentTimeMillis();
-		if(response.command != COMMAND_READ_SENSORS) {
-			System.out.println("Invalid read sensors response - likely failed to read sensors");
-			return false;
-		}
-		// Parse the response
-		for(int i = 0; i < response.data.length/3; i++) {
+		SensorData pending = null;
+		// Parse the response in place
+		// Each record is the sensor ID (1 byte) and the value (2 bytes, big endian, signed)
+		for(int i = 0; i + 2 < body.length; i += 3) {
 			// Parse the sensor IDs
-			int sens = (int)response.data[3*i+0];
+			int sens = 0xFF & body[i];
 			// Parse the sensor values
-			int dat = ((int)response.data[3*i+1]) << 8 | (0xFF & response.data[3*i+2]);
+			int dat = ((int)body[i+1]) << 8 | (0xFF & body[i+2]);
 			if (dat != -32768) {
-				// If the sensor is not in the hashmap, ignore it
-				if(!sensors.containsKey(sens)) {
+				// Get the sensor
+				Sensor s = sensors[sens];
+				// If the sensor is not registered, ignore it
+				if(s == null) {
 					System.out.println("Sensor not loaded (ID = " + sens + ")");
 					continue;
 				}
-				// Get the sensor
-				Sensor s = sensors.get(sens);
-				// Update it with the data
-				boolean different = s.updateRaw(dat);
-				if (different) {
-					sensorUpdateQueue.add(new SensorData(sens, dat, t)); // TODO: transform to sensor-specific physical units here
+				// Update it with the data, and publish it if it changed enough or has been quiet too long
+				s.updateRaw(dat);
+				if (s.checkPublish()) {
+					// Held back one so the last update of the cycle can be marked before it is queued
+					if (pending != null) {
+						sensorUpdateQueue.add(pending);
+					}
+					pending = new SensorData(sens, dat, t); // TODO: transform to sensor-specific physical units here
 				}
 			}
 		}
-		return true;
-	}
-	
-	private SerialPacket readMessage() throws SerialPortException, SerialPortTimeoutException {
-		byte[] r_head = port.readBytes(2, SERIAL_TIMEOUT_MS);
-		int len = r_head[1];
-		if (len < 0) {
-			len += 256;
+		if (pending != null) {
+			pending.endOfCycle = true;
+			sensorUpdateQueue.add(pending);
 		}
-		byte[] r_body = port.readBytes(len, SERIAL_TIMEOUT_MS);
-		SerialPacket response = new SerialPacket(r_head[0],r_body);
-		return response;
-	}
-	
-	private void sendMessage(SerialPacket p) throws SerialPortException {
-		port.writeBytes(p.asPacket());
+		return true;
 	}
 	
 	public HardwareControlInterface() {
+		this(DEFAULT_CYCLE_RATE_HZ);
+	}
+
+	/**
+	 * Creates the interface and finds the arduino
+	 * @param cycleRateHz The rate the control loop runs at, in cycles per second
+	 */
+	public HardwareControlInterface(int cycleRateHz) {
+		this.cycleTimer = new CycleTimer(cycleRateHz);
 
 		// Find arduino port
 		findArduinoPort();
 	}
 
+	/**
+	 * Creates the interface on a port that is already open, without searching for the arduino
+	 * @param cycleRateHz The rate the control loop runs at, in cycles per second
+	 * @param port The port the arduino is attached to
+	 */
+	HardwareControlInterface(int cycleRateHz, SerialPort port) {
+		this.cycleTimer = new CycleTimer(cycleRateHz);
+		this.port = port;
+	}
+
 	private void findArduinoPort(){
 
         // For each attached serial port
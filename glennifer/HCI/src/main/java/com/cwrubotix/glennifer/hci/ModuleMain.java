@@ -12,6 +12,7 @@ import org.yaml.snakeyaml.Yaml;
 import java.io.FileInputStream;
 import java.io.IOException;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.ArrayList;
@@ -32,6 +33,15 @@ public class ModuleMain {
     private static String exchangeName;
     private static Channel channel;
     private static String queueName;
+    private static int hciRateHz = HardwareControlInterface.DEFAULT_CYCLE_RATE_HZ;
+    // When set, each read sensors cycle is published as one sensor.batch message
+    private static boolean sensorBatching = false;
+    private static Messages.SensorBatch.Builder sensorBatch = Messages.SensorBatch.newBuilder();
+    // Sensor ID -> how to publish its updates, from config/Sensors.yml
+    private static SensorRoute[] sensorRoutes;
+    private static Messages.UnixTime.Builder unixTimeBuilder = Messages.UnixTime.newBuilder();
+    // Motor control routing key -> handler
+    private static CommandRouter commandRouter = createCommandRouter();
 
 	public static void runWithConnectionExceptions() throws IOException, TimeoutException {
 
@@ -44,7 +54,7 @@ public class ModuleMain {
 		//Connect and Configure AMPQ
         setupAMQP();
 
-        hci = new HardwareControlInterface();
+        hci = new HardwareControlInterface(hciRateHz);
 
 		// Initialize sensors
         initializeSensors();  
@@ -64,39 +74,30 @@ public class ModuleMain {
 		Consumer consumer = new DefaultConsumer(channel) {
 			@Override
 			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-				String routingKey = envelope.getRoutingKey();
-				String[] keys = routingKey.split("\\.");
-                if(keys.length < 2) {
-					System.out.println("Motor control routing key must have a second element");
-					return;
+				if (!commandRouter.dispatch(envelope.getRoutingKey(), body)) {
+					System.out.println("Motor control routing key has unrecognized motor: " + envelope.getRoutingKey());
 				}
-				if (keys[1].equals("locomotion")) {
-                    routeLocomotionMessage(keys, body);
-
-                } else if (keys[1].equals("excavation")) {
-                    routeExcavationMessage(keys, body);
-
-                } else if (keys[1].equals("deposition")) {
-                    routeDepositionMessage(keys, body);
-
-                } else if (keys[1].equals("looky")) {
-                    routeLookyMessage(keys, body);
-                }
-
-                else if (keys[1].equals("system")){
-                    routeSystemMessage(keys, body);
-			    }
-		    };
+			}
 		};
 
 		channel.basicConsume(queueName, true, consumer);
         // Main loop to get sensor data
         //generateDummyMessage();
+        ArrayList<SensorData> cycleUpdates = new ArrayList<SensorData>();
         try {
             while (true) {
                 //System.out.println("Looping in main");
-                SensorData sensorData = hci.pollSensorUpdate();
-                generateSensorUpdateMessage(sensorData);
+                if (sensorBatching) {
+                    hci.pollSensorUpdates(cycleUpdates);
+                    for (SensorData sensorData : cycleUpdates) {
+                        generateSensorUpdateMessage(sensorData);
+                    }
+                    cycleUpdates.clear();
+                    flushSensorBatch();
+                } else {
+                    SensorData sensorData = hci.pollSensorUpdate();
+                    generateSensorUpdateMessage(sensorData);
+                }
 
                 if (!hciThread.isAlive()) {
                     break;
@@ -109,137 +110,62 @@ public class ModuleMain {
     }
 
     private static void generateSensorUpdateMessage(SensorData sensorData) throws IOException{
-        int sensorDataID =  sensorData.id;
-        double value = sensorData.data;
-        //System.out.print("data ID: " + sensorDataID);
-        //System.out.println(", value: " + value);
+        SensorRoute route = sensorRoutes[sensorData.id & 0xFF];
+        if (route == null) {
+            return;
+        }
+        publishSensorUpdate(route.routingKey, encodeSensorUpdate(route, sensorData));
+    }
+
+    /**
+     * Encodes a sensor update as its route's message, with the time it was read
+     */
+    static MessageLite encodeSensorUpdate(SensorRoute route, SensorData sensorData) {
         long time_ms = sensorData.timestamp;
-        Messages.UnixTime unixTime = Messages.UnixTime.newBuilder()
+        Messages.UnixTime unixTime = unixTimeBuilder
                 .setTimeInt(time_ms / 1000)
                 .setTimeFrac((time_ms % 1000) / (1000.0F))
                 .build();
-        switch(sensorDataID){
-            // LEFT WHEEL RPM
-            case 1:
-            case 7: {
-                Messages.RpmUpdate msg = Messages.RpmUpdate.newBuilder()
-                    .setRpm((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                if (sensorDataID == 1)
-                    channel.basicPublish("amq.topic", "sensor.locomotion.front_left.wheel_rpm", null, msg.toByteArray());
-                else if (sensorDataID == 7)
-                    channel.basicPublish("amq.topic", "sensor.locomotion.back_left.wheel_rpm", null, msg.toByteArray());
-                break;
-            }
-
-            // RIGHT WHEEL RPM
-            case 3:
-            case 5: {
-                Messages.RpmUpdate msg = Messages.RpmUpdate.newBuilder()
-                    .setRpm((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                if (sensorDataID == 3)
-                    channel.basicPublish("amq.topic", "sensor.locomotion.front_right.wheel_rpm", null, msg.toByteArray());
-                else if (sensorDataID == 5)
-                    channel.basicPublish("amq.topic", "sensor.locomotion.back_right.wheel_rpm", null, msg.toByteArray());
-                break;
-            }
-
-            // EXCAVATION ARM POSITION
-            case 10:
-            case 11: {
-                value = (float)convertToBCAngle(value);
-                Messages.PositionUpdate msg = Messages.PositionUpdate.newBuilder()
-                    .setPosition((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                channel.basicPublish("amq.topic", "sensor.excavation.arm_pos", null, msg.toByteArray());
-                break;
-            }
-
-            // EXCAVATION BC TRANSLATION DISPLACEMENT
-            case 12: {
-                value = (value - 2944) / 10.5;  
-                Messages.DisplacementUpdate msg = Messages.DisplacementUpdate.newBuilder()
-                    .setDisplacement((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                channel.basicPublish("amq.topic", "sensor.excavation.conveyor_translation_displacement", null, msg.toByteArray());
-                
-                break;
-            }
+        return route.encode(sensorData.data, unixTime);
+    }
 
-            // EXCAVATION BC DIGGING CURRENT
-            case 33: {
-                Messages.CurrentUpdate msg = Messages.CurrentUpdate.newBuilder()
-                    .setCurrent((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                channel.basicPublish("amq.topic", "sensor.excavation.conveyor_current", null, msg.toByteArray());
-                break;
-            }
+    /**
+     * Publishes a sensor update, or adds it to the current batch when batching is on
+     */
+    private static void publishSensorUpdate(String routingKey, MessageLite msg) throws IOException {
+        if (sensorBatching) {
+            batchSensorUpdate(routingKey, msg);
+        } else {
+            channel.basicPublish("amq.topic", routingKey, null, msg.toByteArray());
+        }
+    }
 
-            // DEPOSITION HOPPER RPM 
-            // maybe it should be position controlled instead of speed controlled
-            /*case 14: {
-                Messages.RpmUpdate msg = Messages.RpmUpdate.newBuilder()
-                    .setRpm((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                channel.basicPublish("amq.topic", "sensor.deposition.hopper_rpm", null, msg.toByteArray());
-                break;
-            }*/
-
-            // LOAD CELLS
-            case 22:
-            case 23: {
-                Messages.LoadUpdate msg = Messages.LoadUpdate.newBuilder()
-                    .setLoad((float)value)
-                    .setTimestamp(unixTime)
-                    .build();
-                if (sensorDataID == 22)
-                    channel.basicPublish("amq.topic", "sensor.deposition.load.left", null, msg.toByteArray());
-                else if (sensorDataID == 23)
-                    channel.basicPublish("amq.topic", "sensor.deposition.load.right", null, msg.toByteArray());
-                break;
-            }
+    /**
+     * Adds a sensor update to the current batch
+     */
+    static void batchSensorUpdate(String routingKey, MessageLite msg) {
+        sensorBatch.addEntries(Messages.SensorBatchEntry.newBuilder()
+                .setRoutingKey(routingKey)
+                .setBody(msg.toByteString()));
+    }
 
-            // LIMIT SWITCHES
-            case 13:
-            case 14:
-            case 15:
-            case 16:
-            case 17:
-            case 18:
-            case 19:
-            case 20:
-            case 21: {
-                Messages.LimitUpdate msg = Messages.LimitUpdate.newBuilder()
-                    .setPressed(value > 0)
-                    .setTimestamp(unixTime)
-                    .build();
-                if (sensorDataID == 13) 
-                    channel.basicPublish("amq.topic", "sensor.excavation.conveyor_translation_limit_retracted", null, msg.toByteArray());
-                else if (sensorDataID == 14)
-                    channel.basicPublish("amq.topic", "sensor.excavation.conveyor_translation_limit_extended.right", null, msg.toByteArray());
-                else if (sensorDataID == 15)
-                    channel.basicPublish("amq.topic", "sensor.excavation.conveyor_translation_limit_extended.left", null, msg.toByteArray());
-                else if (sensorDataID == 16)
-                    channel.basicPublish("amq.topic", "sensor.excavation.arm_limit_extended.left", null, msg.toByteArray());
-                else if (sensorDataID == 17)
-                    channel.basicPublish("amq.topic", "sensor.excavation.arm_limit_extended.right", null, msg.toByteArray());
-                else if (sensorDataID == 21)
-                    channel.basicPublish("amq.topic", "sensor.deposition.hopper_limit_extended.left", null, msg.toByteArray());
-                else if (sensorDataID == 18)
-                    channel.basicPublish("amq.topic", "sensor.deposition.hopper_limit_extended.right", null, msg.toByteArray());
-                else if (sensorDataID == 19)
-                    channel.basicPublish("amq.topic", "sensor.deposition.hopper_limit_retracted.left", null, msg.toByteArray());
-                else if (sensorDataID == 20)
-                    channel.basicPublish("amq.topic", "sensor.deposition.hopper_limit_retracted.right", null, msg.toByteArray());
-            }
+    /**
+     * Publishes the updates batched since the last flush, if there are any
+     */
+    private static void flushSensorBatch() throws IOException {
+        if (sensorBatch.getEntriesCount() == 0) {
+            return;
         }
+        channel.basicPublish("amq.topic", "sensor.batch", null, takeSensorBatch());
+    }
+
+    /**
+     * Encodes the current batch as one sensor.batch message and starts a new one
+     */
+    static byte[] takeSensorBatch() {
+        byte[] body = sensorBatch.build().toByteArray();
+        sensorBatch.clear();
+        return body;
     }
 
     private static void getVarsFromConfigFile(String path) throws RuntimeException, IOException{
@@ -264,6 +190,15 @@ public class ModuleMain {
         if (exchangeName == null) {
             throw new RuntimeException("Config file missing exchange-name");
         }
+        // Optional, YAML parses it as a number
+        Object rate = ((Map<String, Object>)connectionConfigObj).get("hci-rate-hz");
+        if (rate != null) {
+            hciRateHz = Integer.parseInt(rate.toString());
+        }
+        Object batching = ((Map<String, Object>)connectionConfigObj).get("sensor-batching");
+        if (batching != null) {
+            sensorBatching = Boolean.parseBoolean(batching.toString());
+        }
     }
 
     private static void setupAMQP() throws IOException, TimeoutException{
@@ -276,38 +211,12 @@ public class ModuleMain {
         queueName = channel.queueDeclare().getQueue();
     }
 
-    private static void initializeSensors(){
-        
-        ArrayList<SensorConfig> sensorList = new ArrayList<SensorConfig>();
-        
-        // Locomotion 
-        sensorList.add(new SensorConfig("Front Left Wheel Encoder", 1));
-        sensorList.add(new SensorConfig("Front Right Wheel Encoder", 3));
-        sensorList.add(new SensorConfig("Back Left Wheel Encoder", 7));
-        sensorList.add(new SensorConfig("Back Right Wheel Encoder", 5));
-        
-        //Excavation
-        sensorList.add(new SensorConfig("Left Arm Pot", 10));
-        sensorList.add(new SensorConfig("Right Arm Pot", 11));
-        sensorList.add(new SensorConfig("Left Arm Extended Limit", 16));
-        sensorList.add(new SensorConfig("Right Arm Extended Limit", 17));
-        sensorList.add(new SensorConfig("Bucket Conveyor Translation Pot", 12));
-        sensorList.add(new SensorConfig("Bucket Conveyor Retracted Limit", 13));
-        sensorList.add(new SensorConfig("Bucket Conveyor Extended Limit A", 15));
-        sensorList.add(new SensorConfig("Bucket Conveyor Extended Limit B", 14));
-        sensorList.add(new SensorConfig("Bucket Conveyor Current", 33));
-
-        //Deposition
-        sensorList.add(new SensorConfig("Load Cell A", 22));
-        sensorList.add(new SensorConfig("Load Cell B", 23));
-        sensorList.add(new SensorConfig("Hopper Extended Limit A", 21));
-        sensorList.add(new SensorConfig("Hopper Extended Limit B", 18));
-        sensorList.add(new SensorConfig("Hopper Retracted Limit A", 19));
-        sensorList.add(new SensorConfig("Hopper Retracted Limit B", 20));
-
-        // Add sensors
-        for (SensorConfig config : sensorList){
-            hci.addSensor(config);
+    private static void initializeSensors() throws IOException{
+        sensorRoutes = SensorRoute.loadTable();
+        for (SensorRoute route : sensorRoutes) {
+            if (route != null) {
+                hci.addSensor(route.toSensorConfig());
+            }
         }
     }
 
@@ -342,41 +251,40 @@ public class ModuleMain {
         System.out.println("sent dummy wheel rpm message");
     }
 
-    private static void routeLocomotionMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
-        
-        if(keys.length < 4) {
-            System.out.println("Locomotion motor control routing key must have 4 elements");
-            return;
-        }
-
-        if (keys[3].equals("wheel_rpm")) {
-            routeWheelRPMMessage(keys, body);
-        } else if(keys[3].equals("turn")) {
-            routeTurnMessage(keys, body);
-        } else if(keys[3].equals("all_wheels")) {
-            routeAllWheelsMessage(keys, body);
-        } else if(keys[3].equals("closed_loop")) {
-            routeClosedLoopMessage(keys, body);
-        } else {
-            System.out.println("Locomotion motor control routing key has unrecognized motor");
-            return;
-        }
+    /**
+     * Builds the table of motor control routing keys and the actuators they drive
+     */
+    private static CommandRouter createCommandRouter() {
+        CommandRouter router = new CommandRouter();
+
+        // Locomotion
+        router.register("motorcontrol.locomotion.front_left.wheel_rpm", body -> routeWheelRPMMessage(0, body));
+        router.register("motorcontrol.locomotion.front_right.wheel_rpm", body -> routeWheelRPMMessage(1, body));
+        router.register("motorcontrol.locomotion.back_left.wheel_rpm", body -> routeWheelRPMMessage(2, body));
+        router.register("motorcontrol.locomotion.back_right.wheel_rpm", body -> routeWheelRPMMessage(3, body));
+        router.register("motorcontrol.locomotion.*.turn", ModuleMain::routeTurnMessage);
+        router.register("motorcontrol.locomotion.*.all_wheels", ModuleMain::routeAllWheelsMessage);
+        router.register("motorcontrol.locomotion.*.closed_loop", ModuleMain::routeClosedLoopMessage);
+
+        // Excavation
+        router.register("motorcontrol.excavation.conveyor_translation_displacement", ModuleMain::routeConveyorTranslationDisplacementMessage);
+        router.register("motorcontrol.excavation.conveyor_translation_speed", ModuleMain::routeConveyorTranslationSpeedMessage);
+        router.register("motorcontrol.excavation.arm_pos", ModuleMain::routeArmPosMessage);
+        router.register("motorcontrol.excavation.bucket_conveyor_rpm", ModuleMain::routeBucketConveyorRPMMessage);
+
+        // Deposition
+        router.register("motorcontrol.deposition.dump_pos", ModuleMain::routeDumpPosMessage);
+
+        // Looky
+        router.register("motorcontrol.looky.turn.left", body -> routeLookyTurnMessage(9, 270, body));
+        router.register("motorcontrol.looky.turn.right", body -> routeLookyTurnMessage(10, 90, body));
+
+        // System
+        router.register("motorcontrol.system.stop_all", ModuleMain::routeStopAllMessage);
+        return router;
     }
 
-    private static void routeWheelRPMMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
-        int id = -1;
-        if (keys[2].equals("front_left")) {
-            id = 0;
-        } else if (keys[2].equals("front_right")) {
-            id = 1;
-        } else if (keys[2].equals("back_left")) {
-            id = 2;
-        } else if (keys[2].equals("back_right")) {
-            id = 3;
-        } else {
-            System.out.println("Locomotion motor control routing key has invalid wheel");
-            return;
-        }
+    private static void routeWheelRPMMessage(int id, byte[] body) throws InvalidProtocolBufferException{
         double targetValue = 0;
         Messages.SpeedControlCommand scc = Messages.SpeedControlCommand.parseFrom(body);
         targetValue = (scc.getRpm() * 2);
@@ -395,7 +303,7 @@ public class ModuleMain {
         queueActuation(id, targetValue);
     }
 
-    private static void routeTurnMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
+    private static void routeTurnMessage(byte[] body) throws InvalidProtocolBufferException{
         Messages.TurnControlCommand tc = Messages.TurnControlCommand.parseFrom(body);
         int id0 = 0;
         int id1 = 1;
@@ -428,7 +336,7 @@ public class ModuleMain {
         queueActuation(id3, targetValue3);
     }
 
-    private static void routeAllWheelsMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
+    private static void routeAllWheelsMessage(byte[] body) throws InvalidProtocolBufferException{
         Messages.AllWheelsCommand awc = Messages.AllWheelsCommand.parseFrom(body);
         int id0 = 0;
         int id1 = 1;
@@ -445,7 +353,7 @@ public class ModuleMain {
         queueActuation(id3, targetValue3);
     }
 
-    private static void routeClosedLoopMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
+    private static void routeClosedLoopMessage(byte[] body) throws InvalidProtocolBufferException{
         Messages.ClosedLoopCommand clc = Messages.ClosedLoopCommand.parseFrom(body);
         int id = 12;
         double targetValue = 0;
@@ -463,105 +371,68 @@ public class ModuleMain {
         queueActuation(3, 0);
     }
 
-    private static void routeExcavationMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
-        if(keys.length < 3) {
-            System.out.println("Excavation motor control routing key must have 3 elements");
-            return;
-        }
+    private static void routeConveyorTranslationDisplacementMessage(byte[] body) throws InvalidProtocolBufferException{
+        Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
+        int id = 8;
+        double targetValue = pcc.getPosition() * 10;
+        queueActuation(id, targetValue);
+    }
 
-        if (keys[2].equals("conveyor_translation_displacement")) {
-            Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
-            int id = 8;
-            double targetValue = pcc.getPosition() * 10;
-            queueActuation(id, targetValue);      
-        } else if (keys[2].equals("conveyor_translation_speed")) {
-            Messages.SpeedControlCommand pcc = Messages.SpeedControlCommand.parseFrom(body);
-            int id = 11;
-            double targetValue = pcc.getRpm() * 5;
-            queueActuation(id, targetValue);
-        }else if (keys[2].equals("arm_pos")) {
-            Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
-            int id1 = 6;
-            int id2 = 7;
-            double targetValue = pcc.getPosition() * 10;
-            if(targetValue == 1000){
-                targetValue = 2000;
-            }
-            queueActuation(id1, targetValue);
-            queueActuation(id2, targetValue);
-        } else if (keys[2].equals("bucket_conveyor_rpm")) {
-            Messages.SpeedControlCommand scc = Messages.SpeedControlCommand.parseFrom(body);
-            int id = 4;
-            double targetValue = scc.getRpm() * 4;
-            queueActuation(id, targetValue);
-        } else {
-            System.out.println("Excavation motor control routing key has unrecognized motor");
-            return;
-        }
+    private static void routeConveyorTranslationSpeedMessage(byte[] body) throws InvalidProtocolBufferException{
+        Messages.SpeedControlCommand pcc = Messages.SpeedControlCommand.parseFrom(body);
+        int id = 11;
+        double targetValue = pcc.getRpm() * 5;
+        queueActuation(id, targetValue);
     }
 
-    private static void routeDepositionMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
-        if(keys.length < 3) {
-            System.out.println("Deposition motor control routing key must have 3 elements");
-            return;
-        }
-        if (keys[2].equals("dump_pos")) {
-            Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
-            int id = 5;
-            double targetValue = pcc.getPosition() * 2;
-            queueActuation(id, targetValue);
-        } else {
-            System.out.println("Deposition motor control routing key has unrecognized motor");
-            return;
+    private static void routeArmPosMessage(byte[] body) throws InvalidProtocolBufferException{
+        Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
+        int id1 = 6;
+        int id2 = 7;
+        double targetValue = pcc.getPosition() * 10;
+        if(targetValue == 1000){
+            targetValue = 2000;
         }
+        queueActuation(id1, targetValue);
+        queueActuation(id2, targetValue);
     }
 
-    private static void routeLookyMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
-        if(keys.length < 4) {
-            System.out.println("Looky motor control routing key must have 4 elements");
-            return;
-        }
-        if (keys[2].equals("turn")) {
-            int id;
-            Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
-            double targetValue = pcc.getPosition();
-            if(keys[3].equals("left")){
-                id = 9;
-                targetValue -= 270;
-            }
-            else if(keys[3].equals("right")){
-                id = 10;
-                targetValue -= 90;
-            }
-            else{
-                System.out.println("Invalid looky motor side");
-                return;
-            }
-            queueActuation(id, targetValue);
-        } else {
-            System.out.println("Looky motor control routing key has unrecognized motor");
-            return;
-        }
+    private static void routeBucketConveyorRPMMessage(byte[] body) throws InvalidProtocolBufferException{
+        Messages.SpeedControlCommand scc = Messages.SpeedControlCommand.parseFrom(body);
+        int id = 4;
+        double targetValue = scc.getRpm() * 4;
+        queueActuation(id, targetValue);
     }
 
-    private static void routeSystemMessage(String[] keys, byte[] body) throws InvalidProtocolBufferException{
-        if(keys[2].equals("stop_all")){
-            Messages.StopAllCommand sac = Messages.StopAllCommand.parseFrom(body);
-            int id = 50; //the "50th motor tells all motors to stop or start"
-            double targetValue = 0;
-            if(sac.getStop() == true){
-                targetValue = 0;
-            }
-            else {
-                targetValue = 1;
-            }
-            System.out.println("Stop All command issued");
-            queueActuation(id, targetValue);
+    private static void routeDumpPosMessage(byte[] body) throws InvalidProtocolBufferException{
+        Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
+        int id = 5;
+        double targetValue = pcc.getPosition() * 2;
+        queueActuation(id, targetValue);
+    }
+
+    /**
+     * @param id Looky servo actuator ID
+     * @param center Angle the servo's zero position points at
+     */
+    private static void routeLookyTurnMessage(int id, double center, byte[] body) throws InvalidProtocolBufferException{
+        Messages.PositionControlCommand pcc = Messages.PositionControlCommand.parseFrom(body);
+        double targetValue = pcc.getPosition() - center;
+        queueActuation(id, targetValue);
+    }
+
+    private static void routeStopAllMessage(byte[] body) throws InvalidProtocolBufferException{
+        Messages.StopAllCommand sac = Messages.StopAllCommand.parseFrom(body);
+        int id = 50; //the "50th motor tells all motors to stop or start"
+        double targetValue = 0;
+        if(sac.getStop() == true){
+            targetValue = 0;
         }
         else {
-        System.out.println("Motor control routing key has unrecognized subsystem");
-        return;
+            targetValue = 1;
         }
+        System.out.println("Stop All command issued");
+        queueActuation(id, targetValue);
     }
 
     private static Actuation queueActuation(int id, double targetValue){
@@ -581,24 +452,6 @@ public class ModuleMain {
 		}
 	}
 	
-	/**
-	 * Takes Voltage read from BC arm actuators and turn it into the BC angle position
-	 * If this method returns 0, the BC is horizontal to the ground.
-	 * If this method returns 90, the BC is vertical to the ground.
-	 * @param voltage
-	 * @return the angle position of BC in degrees.
-	 */
-	private static double convertToBCAngle(double voltage){
-		/*All the magic numbers are measured in SolidWorks assuming and setting the extension length and bc angle
-		 * are both 0 when BC is horizontal to the ground.*/
-		double C = 48.7892 * Math.PI / 180;
-		double a = 3.23433;
-		double b = 0.37656 + (voltage - 0.04624)/0.79547; // Paul's equation
-		double c = Math.sqrt(a*a+ b*b - 2 * a * b * Math.cos(C));
-		double rad =  Math.acos((b * b + c * c - a * a)/(2 * b * c)) - (5.10922 * Math.PI / 180);
-		return rad * 180 / Math.PI;
-	}
-
 	public static void main(String[] args) {
 		try {
 			runWithConnectionExceptions();
@@ -1,91 +1,208 @@
 package com.cwrubotix.glennifer.hci;
 
-import java.util.ArrayList;
-
 public class Sensor {
 	// Number of milliseconds that data is valid for
 	final long maxExtrapolate = 250;
-	
+
 	public final SensorConfig config;
-	
-	ArrayList<SensorData> data = new ArrayList<SensorData>();
+
+	// Fixed size ring buffer of the most recent samples, oldest first starting at head
+	private final long[] timestamps;
+	private final double[] values;
+	private int head = 0;
+	private int size = 0;
 	double RC;
 	boolean lowPass = false;
-	
+	// Last value and time reported by checkPublish, publishedMillis is 0 before the first
+	private double publishedValue;
+	private long publishedMillis = 0;
+
 	public boolean updateRaw(int val) {
 		return update(val*config.scale);
 	}
-	
+
 	/**
 	 * Updates the data with the value.  Performs low pass filter if enabled. Returns whether or not the new value is different
 	 * @param val
 	 * @return true if the new value is different, false if not
 	 */
 	public boolean update(double val) {
-		long mil = System.currentTimeMillis();
-		if(data.size() == 0 || !lowPass) {
-			data.add(new SensorData(config.ID, val, mil));
+		return update(val, System.currentTimeMillis());
+	}
+
+	/**
+	 * Updates the data with a value read at a given time
+	 * @param val
+	 * @param mil Time the value was read in milliseconds since the epoch, no earlier than the last update
+	 * @return true if the new value is different, false if not
+	 */
+	boolean update(double val, long mil) {
+		if(size == 0 || !lowPass) {
+			add(mil, val);
 			return true;
 		}
-		double dt = (double)(mil - data.get(data.size()-1).timestamp);
+		int last = physical(size - 1);
+		double dt = (double)(mil - timestamps[last]);
 		double alpha = dt/(RC + dt);
-		double fVal = alpha * val + (1 - alpha)*data.get(data.size()-1).data;
-		boolean different = (fVal != data.get(data.size() - 1).data);
-		data.add(new SensorData(config.ID, fVal, mil));
+		double fVal = alpha * val + (1 - alpha)*values[last];
+		boolean different = (fVal != values[last]);
+		add(mil, fVal);
 		return different;
 	}
-	
+
 	public void setLowPassFreq(double freq) {
 		RC = 1/(2*Math.PI*freq);
 		lowPass = true;
 	}
-	
+
 	public void removeLowPass() {
 		lowPass = false;
 	}
-	
+
+	/**
+	 * Gets the value at a point in time by interpolating between the stored samples.
+	 * Extrapolates from the last two samples for up to maxExtrapolate milliseconds after the newest one,
+	 * and holds the newest value after that.
+	 * @param millis Time in milliseconds since the epoch
+	 * @return The value, or 0 if there is no data at or before that time
+	 */
 	public double getDataAt(long millis) {
-		if(data.size() == 0) {
+		if(size == 0) {
 			return 0;
 		}
-		if(data.size() == 1) {
-			return data.get(0).data;
+		int last = physical(size - 1);
+		if(size == 1) {
+			return values[last];
 		}
-		long lastTimestamp = data.get(data.size() - 1).timestamp;
-		long firstTimestamp = data.get(0).timestamp;
-		if(millis - lastTimestamp > maxExtrapolate) {
-			return data.get(data.size() - 1).data;
+		if(millis - timestamps[last] > maxExtrapolate) {
+			return values[last];
 		}
-		if(millis < firstTimestamp) {
+		if(millis < timestamps[head]) {
 			return 0;
 		}
-		int b = 0, a = 0;
-		for(int i = 0; i < data.size(); i++) {
-			if(data.get(i).timestamp == millis) {
-				return millis;
-			}
-			if(data.get(i).timestamp < millis) {
-				b = i;
-			} else if(data.get(i).timestamp > millis) {
-				a = i;
-				break;
-			}
+		int b = floorIndex(millis);
+		if(timestamps[physical(b)] == millis) {
+			return values[physical(b)];
+		}
+		// Interpolate within [b, b+1], or extrapolate off the last segment
+		int before = physical(b == size - 1 ? b - 1 : b);
+		int after = physical(b == size - 1 ? b : b + 1);
+		long span = timestamps[after] - timestamps[before];
+		if(span == 0) {
+			return values[after];
 		}
-		SensorData after = data.get(a);
-		SensorData before = data.get(b);
-		double slope = (after.data - before.data)/(after.timestamp - before.timestamp);
-		return before.data + slope*(millis - before.timestamp);
+		double slope = (values[after] - values[before])/span;
+		return values[before] + slope*(millis - timestamps[before]);
 	}
-	
+
+	/**
+	 * Gets the rate of change at a point in time from the stored samples on either side of it
+	 * @param millis Time in milliseconds since the epoch
+	 * @return The derivative in units per second, or 0 if there isn't enough data around that time
+	 */
 	public double getDerivativeAt(long millis) {
-		if(data.size() <= 1) {
+		if(size <= 1) {
+			return 0;
+		}
+		int last = physical(size - 1);
+		if(millis < timestamps[head] || millis - timestamps[last] > maxExtrapolate) {
+			return 0;
+		}
+		int b = floorIndex(millis);
+		// Past the newest sample, use the last segment
+		if(b == size - 1) {
+			b--;
+		}
+		int before = physical(b);
+		int after = physical(b + 1);
+		long span = timestamps[after] - timestamps[before];
+		if(span == 0) {
 			return 0;
 		}
-		// Todo
-		return 0;
+		return (values[after] - values[before])*1000.0/span;
+	}
+
+	/**
+	 * Decides whether the newest sample should be published, and if so records it as published.
+	 * A change is published when it moves the value by more than the config's deadband and
+	 * at least minPublishIntervalMs has passed since the last publication. The value is also
+	 * published, changed or not, once maxSilenceMs has passed, so subscribers never go
+	 * longer than that without hearing from the sensor.
+	 * @return true if the newest sample should be published
+	 */
+	public boolean checkPublish() {
+		if(size == 0) {
+			return false;
+		}
+		int last = physical(size - 1);
+		long millis = timestamps[last];
+		double value = values[last];
+		long elapsed = millis - publishedMillis;
+		boolean publish;
+		if(publishedMillis == 0) {
+			publish = true;
+		} else if(config.maxSilenceMs > 0 && elapsed >= config.maxSilenceMs) {
+			publish = true;
+		} else {
+			publish = elapsed >= config.minPublishIntervalMs
+					&& Math.abs(value - publishedValue) > config.deadband;
+		}
+		if(publish) {
+			publishedValue = value;
+			publishedMillis = millis;
+		}
+		return publish;
+	}
+
+	/**
+	 * @return The number of samples currently stored
+	 */
+	public int getSampleCount() {
+		return size;
+	}
+
+	private void add(long millis, double value) {
+		int slot;
+		if(size < timestamps.length) {
+			slot = physical(size);
+			size++;
+		} else {
+			// Full, overwrite the oldest
+			slot = head;
+			head = (head + 1) % timestamps.length;
+		}
+		timestamps[slot] = millis;
+		values[slot] = value;
 	}
-	
+
+	/**
+	 * Converts an index counted from the oldest sample to an array index
+	 */
+	private int physical(int i) {
+		return (head + i) % timestamps.length;
+	}
+
+	/**
+	 * Binary search for the newest sample at or before millis
+	 * @return index counted from the oldest sample, or -1 if every sample is after millis
+	 */
+	private int floorIndex(long millis) {
+		int lo = 0, hi = size - 1, found = -1;
+		while(lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if(timestamps[physical(mid)] <= millis) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+
 	Sensor(SensorConfig config) {
 		this.config = config;
+		this.timestamps = new long[config.historySize];
+		this.values = new double[config.historySize];
 	}
 }
@@ -1,11 +1,23 @@
 package com.cwrubotix.glennifer.hci;
 
 public class SensorConfig {
+	// Number of samples of history a sensor keeps unless configured otherwise
+	static final int DEFAULT_HISTORY_SIZE = 512;
+	// Longest a sensor goes without publishing unless configured otherwise
+	static final long DEFAULT_MAX_SILENCE_MS = 1000;
+
 	String name;
 	String description;
 	int ID;
 	boolean limitSwitch;
 	double scale;
+	int historySize;
+	// Changes no bigger than this are not published
+	double deadband;
+	// Minimum time between publications, 0 for none
+	long minPublishIntervalMs;
+	// Publish the current value after this long without publishing even if it hasn't changed, 0 to never
+	long maxSilenceMs;
         
     //Copy function
     public SensorConfig copy() {
@@ -15,6 +27,10 @@ public class SensorConfig {
         dum.ID = this.ID;
         dum.limitSwitch = this.limitSwitch;
         dum.scale = this.scale;
+        dum.historySize = this.historySize;
+        dum.deadband = this.deadband;
+        dum.minPublishIntervalMs = this.minPublishIntervalMs;
+        dum.maxSilenceMs = this.maxSilenceMs;
         return dum;
     }
 
@@ -23,5 +39,9 @@ public class SensorConfig {
         this.scale = 1;
         this.ID = ID;
         this.limitSwitch = false;
+        this.historySize = DEFAULT_HISTORY_SIZE;
+        this.deadband = 0;
+        this.minPublishIntervalMs = 0;
+        this.maxSilenceMs = DEFAULT_MAX_SILENCE_MS;
     }
 }
@@ -5,6 +5,8 @@ public class SensorData {
 	double data;
 	boolean triggered = false;
 	long timestamp;
+	// True for the last update produced by a read sensors cycle
+	boolean endOfCycle = false;
 	SensorData(int id, double data, long timestamp) {
 		this.id = id;
 		this.data = data;
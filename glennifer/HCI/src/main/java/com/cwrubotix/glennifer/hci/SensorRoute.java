@@ -0,0 +1,232 @@
+package com.cwrubotix.glennifer.hci;
+
+import com.cwrubotix.glennifer.Messages;
+import com.google.protobuf.MessageLite;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How updates from one sensor are published: the routing key, the message type, and the
+ * conversion from the raw arduino value. Routes are loaded once from config/Sensors.yml into
+ * a table indexed by sensor ID, so publishing an update is a single array lookup.
+ */
+class SensorRoute {
+	private static final String SENSORS_YML_PATH = "config/Sensors.yml";
+
+	/**
+	 * Message type published for a sensor. Each route keeps its own builder, which is reused
+	 * for every update from that sensor.
+	 */
+	enum Kind {
+		RPM {
+			MessageLite encode(SensorRoute route, double value, Messages.UnixTime time) {
+				return route.rpm.setRpm((float)value).setTimestamp(time).build();
+			}
+		},
+		POSITION {
+			MessageLite encode(SensorRoute route, double value, Messages.UnixTime time) {
+				return route.position.setPosition((float)value).setTimestamp(time).build();
+			}
+		},
+		DISPLACEMENT {
+			MessageLite encode(SensorRoute route, double value, Messages.UnixTime time) {
+				return route.displacement.setDisplacement((float)value).setTimestamp(time).build();
+			}
+		},
+		CURRENT {
+			MessageLite encode(SensorRoute route, double value, Messages.UnixTime time) {
+				return route.current.setCurrent((float)value).setTimestamp(time).build();
+			}
+		},
+		LOAD {
+			MessageLite encode(SensorRoute route, double value, Messages.UnixTime time) {
+				return route.load.setLoad((float)value).setTimestamp(time).build();
+			}
+		},
+		LIMIT {
+			MessageLite encode(SensorRoute route, double value, Messages.UnixTime time) {
+				return route.limit.setPressed(value > 0).setTimestamp(time).build();
+			}
+		};
+
+		abstract MessageLite encode(SensorRoute route, double value, Messages.UnixTime time);
+	}
+
+	/**
+	 * Conversion from the raw value read from the arduino to the published value
+	 */
+	enum Conversion {
+		NONE {
+			double apply(SensorRoute route, double value) {
+				return value;
+			}
+		},
+		// (value - offset) / divisor
+		LINEAR {
+			double apply(SensorRoute route, double value) {
+				return (value - route.offset) / route.divisor;
+			}
+		},
+		BC_ANGLE {
+			double apply(SensorRoute route, double value) {
+				return convertToBCAngle(value);
+			}
+		};
+
+		abstract double apply(SensorRoute route, double value);
+	}
+
+	final int id;
+	final String name;
+	final String routingKey;
+	final Kind kind;
+	final Conversion conversion;
+	final double offset;
+	final double divisor;
+	// Publication filtering for the sensor, see SensorConfig
+	double deadband = 0;
+	long minPublishIntervalMs = 0;
+	long maxSilenceMs = SensorConfig.DEFAULT_MAX_SILENCE_MS;
+
+	// Only the builder for this route's kind is used
+	private final Messages.RpmUpdate.Builder rpm = Messages.RpmUpdate.newBuilder();
+	private final Messages.PositionUpdate.Builder position = Messages.PositionUpdate.newBuilder();
+	private final Messages.DisplacementUpdate.Builder displacement = Messages.DisplacementUpdate.newBuilder();
+	private final Messages.CurrentUpdate.Builder current = Messages.CurrentUpdate.newBuilder();
+	private final Messages.LoadUpdate.Builder load = Messages.LoadUpdate.newBuilder();
+	private final Messages.LimitUpdate.Builder limit = Messages.LimitUpdate.newBuilder();
+
+	SensorRoute(int id, String name, String routingKey, Kind kind, Conversion conversion, double offset, double divisor) {
+		this.id = id;
+		this.name = name;
+		this.routingKey = routingKey;
+		this.kind = kind;
+		this.conversion = conversion;
+		this.offset = offset;
+		this.divisor = divisor;
+	}
+
+	/**
+	 * Converts a raw value and builds the update message for it
+	 * @param value Raw value from the arduino
+	 * @param time Time the value was read
+	 * @return The message to publish on {@link #routingKey}
+	 */
+	MessageLite encode(double value, Messages.UnixTime time) {
+		return kind.encode(this, conversion.apply(this, value), time);
+	}
+
+	/**
+	 * @return Configuration for the HCI sensor this route publishes
+	 */
+	SensorConfig toSensorConfig() {
+		SensorConfig config = new SensorConfig(name, id);
+		config.limitSwitch = (kind == Kind.LIMIT);
+		config.deadband = deadband;
+		config.minPublishIntervalMs = minPublishIntervalMs;
+		config.maxSilenceMs = maxSilenceMs;
+		return config;
+	}
+
+	/**
+	 * Reads config/Sensors.yml
+	 * @return Routes indexed by sensor ID, null where no sensor is configured
+	 */
+	static SensorRoute[] loadTable() throws IOException {
+		InputStream input = new FileInputStream(SENSORS_YML_PATH);
+		Yaml yaml = new Yaml();
+		Map<String, Object> sensorsConfig = (Map<String, Object>) yaml.load(input);
+		input.close();
+		if (sensorsConfig == null || sensorsConfig.get("sensors") == null) {
+			throw new RuntimeException("Config file missing sensors");
+		}
+		SensorRoute[] table = new SensorRoute[256];
+		for (Map<String, Object> entry : (List<Map<String, Object>>) sensorsConfig.get("sensors")) {
+			SensorRoute route = fromConfig(entry);
+			if (table[route.id] != null) {
+				throw new RuntimeException("Config file has sensor ID " + route.id + " more than once");
+			}
+			table[route.id] = route;
+		}
+		return table;
+	}
+
+	private static SensorRoute fromConfig(Map<String, Object> entry) {
+		Object id = entry.get("id");
+		if (id == null) {
+			throw new RuntimeException("Config file has a sensor missing id");
+		}
+		int ID = Integer.parseInt(id.toString());
+		if (ID < 0 || ID > 0xFF) {
+			throw new RuntimeException("Config file has sensor ID out of range: " + ID);
+		}
+		Object name = entry.get("name");
+		if (name == null) {
+			throw new RuntimeException("Config file sensor " + ID + " missing name");
+		}
+		Object routingKey = entry.get("routing-key");
+		if (routingKey == null) {
+			throw new RuntimeException("Config file sensor " + ID + " missing routing-key");
+		}
+		Object type = entry.get("type");
+		if (type == null) {
+			throw new RuntimeException("Config file sensor " + ID + " missing type");
+		}
+		Kind kind;
+		Conversion conversion;
+		try {
+			kind = Kind.valueOf(type.toString().toUpperCase());
+			Object conv = entry.get("conversion");
+			conversion = conv == null ? Conversion.NONE : Conversion.valueOf(conv.toString().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new RuntimeException("Config file sensor " + ID + " has unknown type or conversion");
+		}
+		double offset = 0;
+		double divisor = 1;
+		if (conversion == Conversion.LINEAR) {
+			if (entry.get("offset") == null || entry.get("divisor") == null) {
+				throw new RuntimeException("Config file sensor " + ID + " linear conversion needs offset and divisor");
+			}
+			offset = Double.parseDouble(entry.get("offset").toString());
+			divisor = Double.parseDouble(entry.get("divisor").toString());
+		}
+		SensorRoute route = new SensorRoute(ID, name.toString(), routingKey.toString(), kind, conversion, offset, divisor);
+		try {
+			if (entry.get("deadband") != null) {
+				route.deadband = Double.parseDouble(entry.get("deadband").toString());
+			}
+			if (entry.get("min-publish-interval-ms") != null) {
+				route.minPublishIntervalMs = Long.parseLong(entry.get("min-publish-interval-ms").toString());
+			}
+			if (entry.get("max-silence-ms") != null) {
+				route.maxSilenceMs = Long.parseLong(entry.get("max-silence-ms").toString());
+			}
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Config file sensor " + ID + " has a bad publish setting");
+		}
+		return route;
+	}
+
+	/**
+	 * Takes Voltage read from BC arm actuators and turn it into the BC angle position
+	 * If this method returns 0, the BC is horizontal to the ground.
+	 * If this method returns 90, the BC is vertical to the ground.
+	 * @param voltage
+	 * @return the angle position of BC in degrees.
+	 */
+	static double convertToBCAngle(double voltage){
+		/*All the magic numbers are measured in SolidWorks assuming and setting the extension length and bc angle
+		 * are both 0 when BC is horizontal to the ground.*/
+		double C = 48.7892 * Math.PI / 180;
+		double a = 3.23433;
+		double b = 0.37656 + (voltage - 0.04624)/0.79547; // Paul's equation
+		double c = Math.sqrt(a*a+ b*b - 2 * a * b * Math.cos(C));
+		double rad =  Math.acos((b * b + c * c - a * a)/(2 * b * c)) - (5.10922 * Math.PI / 180);
+		return rad * 180 / Math.PI;
+	}
+}
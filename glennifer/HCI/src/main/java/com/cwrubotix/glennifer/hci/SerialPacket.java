@@ -1,18 +1,35 @@
 package com.cwrubotix.glennifer.hci;
 
 public class SerialPacket {
+	// Command byte followed by body length byte
+	public static final int HEADER_SIZE = 2;
 	public final byte command;
 	public final byte[] data;
 	SerialPacket(byte command, byte[] data) {
 		this.command = command;
 		this.data = data;
 	}
-	
+
 	public byte[] asPacket() {
-		byte[] out = new byte[2+data.length];
+		byte[] out = frame(command, data.length);
+		System.arraycopy(data, 0, out, HEADER_SIZE, data.length);
+		return out;
+	}
+
+	/**
+	 * Allocates a complete packet with the header filled in and an empty body.
+	 * The HCI keeps these around and rewrites the body in place each cycle.
+	 * @param command The command byte
+	 * @param bodyLength Number of body bytes, at most 255
+	 * @return The packet bytes
+	 */
+	static byte[] frame(byte command, int bodyLength) {
+		if(bodyLength > 0xFF) {
+			throw new IllegalArgumentException("Packet body too long: " + bodyLength);
+		}
+		byte[] out = new byte[HEADER_SIZE + bodyLength];
 		out[0] = command;
-		out[1] = (byte)(data.length);
-		System.arraycopy(data, 0, out, 2, data.length);
+		out[1] = (byte)bodyLength;
 		return out;
 	}
 }
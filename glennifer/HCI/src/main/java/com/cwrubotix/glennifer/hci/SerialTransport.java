@@ -0,0 +1,158 @@
+package com.cwrubotix.glennifer.hci;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import jssc.SerialPortTimeoutException;
+
+/**
+ * Pipelined request/response transport to the arduino.
+ * Requests are written as soon as there is room in the in-flight window, and a dedicated
+ * reader thread collects the replies, so several commands can be on the wire at once.
+ * The arduino answers commands in the order it received them, so each request's sequence
+ * number is its position in that order; replies are matched by position and checked against
+ * the command byte of the request.
+ * Bookkeeping lives in a fixed ring of slots, so steady-state traffic allocates nothing
+ * beyond the arrays jssc returns from its reads.
+ */
+class SerialTransport {
+	// The arduino has a 64 byte receive buffer, so don't queue up more than this many requests
+	static final int DEFAULT_WINDOW = 2;
+
+	/**
+	 * Bookkeeping for one request, reused once its reply has been received
+	 */
+	private static class Slot {
+		long sequence;
+		byte command;
+		// Reply body, or the failure that stopped the reader
+		byte[] body;
+		Exception failure;
+	}
+
+	private final SerialPort port;
+	private final int timeoutMs;
+	private final Slot[] slots;
+	// Permits for requests that may be sent and not yet received
+	private final Semaphore window;
+	// Requests written and not yet read back, oldest first
+	private final ArrayBlockingQueue<Slot> inFlight;
+	// Replies read back and not yet received, oldest first
+	private final ArrayBlockingQueue<Slot> replies;
+	// Posted by the reader when it stops on an error
+	private final Slot failed = new Slot();
+	private final Thread reader;
+	private long nextSendSequence = 0;
+	private long nextReceiveSequence = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * Starts the transport on an open port
+	 * @param port The port the arduino is attached to
+	 * @param timeoutMs How long to wait for room in the window or for a reply
+	 * @param window Maximum number of requests sent and not yet received
+	 */
+	SerialTransport(SerialPort port, int timeoutMs, int window) {
+		this.port = port;
+		this.timeoutMs = timeoutMs;
+		this.slots = new Slot[window];
+		for(int i = 0; i < window; i++) {
+			slots[i] = new Slot();
+		}
+		this.window = new Semaphore(window);
+		this.inFlight = new ArrayBlockingQueue<>(window);
+		// One extra place so the reader can always post its failure
+		this.replies = new ArrayBlockingQueue<>(window + 1);
+		this.reader = new Thread(this::readLoop, "HCI serial reader " + port.getPortName());
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Writes a request without waiting for its reply. Blocks while the window is full.
+	 * The packet may be reused as soon as this returns.
+	 * @param packet A complete packet, header included (see {@link SerialPacket#frame(byte, int)})
+	 * @return The sequence number to pass to {@link #receive(long)}
+	 */
+	long send(byte[] packet) throws SerialPortException, SerialPortTimeoutException, InterruptedException {
+		if(!window.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+			throw new SerialPortTimeoutException(port.getPortName(), "send", timeoutMs);
+		}
+		long sequence = nextSendSequence++;
+		Slot slot = slots[(int)(sequence % slots.length)];
+		slot.sequence = sequence;
+		slot.command = packet[0];
+		slot.body = null;
+		// Register before writing so the reader is already waiting when the reply arrives
+		inFlight.add(slot);
+		port.writeBytes(packet);
+		return sequence;
+	}
+
+	/**
+	 * Waits for the reply to a request. Replies must be received in the order the requests were sent.
+	 * @param sequence The sequence number returned by {@link #send(byte[])}
+	 * @return The reply body, valid until the next call to send
+	 */
+	byte[] receive(long sequence) throws SerialPortException, SerialPortTimeoutException, InterruptedException {
+		if(sequence != nextReceiveSequence) {
+			throw new IllegalStateException("Expected to receive reply #" + nextReceiveSequence + " but asked for #" + sequence);
+		}
+		Slot slot = replies.poll(timeoutMs, TimeUnit.MILLISECONDS);
+		if(slot == null) {
+			throw new SerialPortTimeoutException(port.getPortName(), "receive", timeoutMs);
+		}
+		if(slot == failed) {
+			// Leave it for anyone else who asks
+			replies.offer(slot);
+			if(slot.failure instanceof SerialPortTimeoutException) {
+				throw (SerialPortTimeoutException)slot.failure;
+			}
+			throw (SerialPortException)slot.failure;
+		}
+		nextReceiveSequence++;
+		byte[] body = slot.body;
+		window.release();
+		return body;
+	}
+
+	/**
+	 * Stops the reader thread. Does not close the port.
+	 */
+	void close() {
+		closed = true;
+		reader.interrupt();
+	}
+
+	private void readLoop() {
+		try {
+			while(!closed) {
+				Slot slot = inFlight.take();
+				byte[] r_head = port.readBytes(SerialPacket.HEADER_SIZE, timeoutMs);
+				int len = r_head[1];
+				if (len < 0) {
+					len += 256;
+				}
+				byte[] r_body = port.readBytes(len, timeoutMs);
+				if(r_head[0] != slot.command) {
+					// We've lost track of the stream, nothing after this can be trusted
+					throw new SerialPortException(port.getPortName(), "receive",
+							"Reply #" + slot.sequence + " has command " + r_head[0] + ", expected " + slot.command);
+				}
+				slot.body = r_body;
+				replies.put(slot);
+			}
+		} catch (InterruptedException e) {
+			// Closed
+		} catch (SerialPortException | SerialPortTimeoutException e) {
+			if(!closed) {
+				failed.failure = e;
+				replies.clear();
+				replies.offer(failed);
+			}
+		}
+	}
+}
@@ -228,9 +228,10 @@ public class ArcPathTestModule extends Module{
 									  .build();
 	this.channel.basicPublish(exchangeName, "state.subscribe", null, msg.toByteArray());
 	
-	String queueName = channel.queueDeclare().getQueue();
-	channel.queueBind(queueName, exchangeName, "arcPathTest");
-	this.channel.basicConsume(queueName, true, new StateUpdate(channel));
+	// Named after the reply key, so StateModule can see if we fall behind
+	channel.queueDeclare("arcPathTest", false, false, false, null);
+	channel.queueBind("arcPathTest", exchangeName, "arcPathTest");
+	this.channel.basicConsume("arcPathTest", true, new StateUpdate(channel));
 	
 	System.out.println("Waiting on Localization message");
     }
@@ -153,10 +153,10 @@ public class AutoDrillModule extends Module {
 		.setLocObsDetailed(true).build();
 	this.channel.basicPublish(exchangeName, "state.subscribe", null, msg.toByteArray());
 
-	// Listen for state update
-	queueName = channel.queueDeclare().getQueue();
-	channel.queueBind(queueName, exchangeName, "autoDrillModule");
-	this.channel.basicConsume(queueName, true, new StateUpdateConsumer(channel));
+	// Listen for state update, on a queue named after the reply key so StateModule can see if we fall behind
+	channel.queueDeclare("autoDrillModule", false, false, false, null);
+	channel.queueBind("autoDrillModule", exchangeName, "autoDrillModule");
+	this.channel.basicConsume("autoDrillModule", true, new StateUpdateConsumer(channel));
 	System.out.println("Waitng commands...");
     }
 
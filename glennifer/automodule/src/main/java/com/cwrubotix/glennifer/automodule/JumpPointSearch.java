@@ -0,0 +1,472 @@
+package com.cwrubotix.glennifer.automodule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Path finding on an occupancy grid of the arena with Jump Point Search. Obstacles of any shape
+ * are marked on the grid inflated by the clearance of the robot, so each search costs about the
+ * same no matter how many obstacles have been found. Jump Point Search is A* over the 8 connected
+ * grid that skips along straight and diagonal runs of free cells, only stopping where an
+ * obstacle forces a turn. Diagonal moves are only taken between two free cells, never past a corner.
+ *
+ * The path returned goes from the start position to the end position, cutting straight across
+ * between the jump points wherever every cell along the way is free. A start or end position
+ * inside an occupied cell is joined to the nearest free cell.
+ */
+public class JumpPointSearch implements PathFindingAlgorithm {
+
+    /**Side of each cell in meters unless given*/
+    public static final double DEFAULT_RESOLUTION = 0.05;
+    /**Clearance distance needed from the center of the robot, as in ModifiedAStar*/
+    private static final double CLEARANCE = 0.80F;
+    private static final double SQRT2 = Math.sqrt(2);
+    /**Line of sight crossing a column and a row boundary closer than this apart passes through their corner*/
+    private static final double CORNER_TOLERANCE = 1e-9;
+
+    private final OccupancyGrid grid;
+    private final int columns;
+    private Position start;
+    private Position end;
+
+    /*Search state of each cell by row * columns + column, kept between searches*/
+    /**Number of the current search, a cell's state below is only valid if its stamp matches*/
+    private int search = 0;
+    private final int[] openedIn;
+    private final int[] closedIn;
+    /**Distance from the start cell*/
+    private final double[] dist;
+    /**Jump point the cell was reached from, -1 for the start cell*/
+    private final int[] parent;
+    private final CellQueue openSet;
+    private int goalColumn;
+    private int goalRow;
+    /**Length along the grid of the last path found, from the center of its start cell to its goal cell*/
+    private double gridDistance;
+
+    public JumpPointSearch() {
+        this(DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * @param resolution side of each cell of the occupancy grid in meters
+     */
+    public JumpPointSearch(double resolution) {
+        grid = new OccupancyGrid(resolution);
+        grid.occupyWalls(CLEARANCE / 2);
+        columns = grid.getColumns();
+        int cells = columns * grid.getRows();
+        openedIn = new int[cells];
+        closedIn = new int[cells];
+        dist = new double[cells];
+        parent = new int[cells];
+        openSet = new CellQueue(64);
+    }
+
+    /**
+     * Returns the occupancy grid, to mark obstacles on directly
+     *
+     * @return the occupancy grid
+     */
+    public OccupancyGrid getGrid() {
+        return grid;
+    }
+
+    @Override
+    public Path computePath() {
+        if (start == null || end == null)
+            return null;
+        return jumpPointSearch(start, end);
+    }
+
+    @Override
+    public Path computePath(Position startPosition, Position endPosition) {
+        start = startPosition;
+        end = endPosition;
+        return jumpPointSearch(start, end);
+    }
+
+    @Override
+    public Path computePath(Position currentPos, Obstacle newObstacle) {
+        addObstacle(newObstacle);
+        start = currentPos;
+        return jumpPointSearch(start, end);
+    }
+
+    /**
+     * Method that computes path when a new obstacle that is not circular was found, such as a crater
+     *
+     * @param currentPos current position of the robot
+     * @param outlineX   x-coordinates of the outline of the obstacle, in order around it
+     * @param outlineY   y-coordinates of the outline of the obstacle
+     * @return the new path created
+     * @throws AlgorithmFailureException when there is no path
+     */
+    public Path computePath(Position currentPos, double[] outlineX, double[] outlineY) {
+        grid.occupyPolygon(outlineX, outlineY, CLEARANCE / 2);
+        start = currentPos;
+        return jumpPointSearch(start, end);
+    }
+
+    @Override
+    public void setEnd(Position endPosition) {
+        end = endPosition;
+    }
+
+    /**
+     * Marks a circular obstacle on the grid without planning
+     *
+     * @param obs the obstacle
+     */
+    public void addObstacle(Obstacle obs) {
+        grid.occupyCircle(obs.getX(), obs.getY(), CLEARANCE / 2 + obs.getRadius());
+    }
+
+    /**
+     * Returns the length along the grid of the last path found, before cutting across between jump points
+     *
+     * @return the length in meters from the center of the start cell to the center of the goal cell
+     */
+    double getGridDistance() {
+        return gridDistance;
+    }
+
+    /*Main Jump Point Search implementation method*/
+
+    private Path jumpPointSearch(Position from, Position to) {
+        int startCell = nearestFree(from);
+        int goalCell = nearestFree(to);
+        if (startCell < 0 || goalCell < 0)
+            throw new PathFindingAlgorithm.AlgorithmFailureException();
+        goalColumn = goalCell % columns;
+        goalRow = goalCell / columns;
+
+        search++;
+        openSet.clear();
+        open(startCell, 0, -1);
+
+        while (!openSet.isEmpty()) {
+            int cell = openSet.poll();
+            if (closedIn[cell] == search) // Already reached by a shorter path
+                continue;
+            closedIn[cell] = search;
+            if (cell == goalCell) {
+                gridDistance = dist[cell];
+                return createPath(from, to, startCell, goalCell);
+            }
+            identifySuccessors(cell);
+        }
+
+        /*If search ends without returning a path, there is no possible path.*/
+        throw new PathFindingAlgorithm.AlgorithmFailureException();
+    }
+
+    /**
+     * Jumps from a cell in each direction a shortest path through it could continue in, and
+     * opens the jump points found
+     *
+     * @param cell the cell being expanded
+     */
+    private void identifySuccessors(int cell) {
+        int x = cell % columns;
+        int y = cell / columns;
+        if (parent[cell] < 0) { // Start cell, every direction
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((dx != 0 || dy != 0) && (dx == 0 || dy == 0 || (isFree(x + dx, y) && isFree(x, y + dy))))
+                        jumpFrom(cell, x + dx, y + dy, dx, dy);
+                }
+            }
+            return;
+        }
+        int dx = Integer.signum(x - parent[cell] % columns);
+        int dy = Integer.signum(y - parent[cell] / columns);
+        if (dx != 0 && dy != 0) {
+            boolean vertical = isFree(x, y + dy);
+            boolean horizontal = isFree(x + dx, y);
+            if (vertical)
+                jumpFrom(cell, x, y + dy, 0, dy);
+            if (horizontal)
+                jumpFrom(cell, x + dx, y, dx, 0);
+            if (vertical && horizontal)
+                jumpFrom(cell, x + dx, y + dy, dx, dy);
+        } else if (dx != 0) {
+            boolean up = isFree(x, y + 1);
+            boolean down = isFree(x, y - 1);
+            if (isFree(x + dx, y)) {
+                jumpFrom(cell, x + dx, y, dx, 0);
+                if (up)
+                    jumpFrom(cell, x + dx, y + 1, dx, 1);
+                if (down)
+                    jumpFrom(cell, x + dx, y - 1, dx, -1);
+            }
+            if (up)
+                jumpFrom(cell, x, y + 1, 0, 1);
+            if (down)
+                jumpFrom(cell, x, y - 1, 0, -1);
+        } else {
+            boolean right = isFree(x + 1, y);
+            boolean left = isFree(x - 1, y);
+            if (isFree(x, y + dy)) {
+                jumpFrom(cell, x, y + dy, 0, dy);
+                if (right)
+                    jumpFrom(cell, x + 1, y + dy, 1, dy);
+                if (left)
+                    jumpFrom(cell, x - 1, y + dy, -1, dy);
+            }
+            if (right)
+                jumpFrom(cell, x + 1, y, 1, 0);
+            if (left)
+                jumpFrom(cell, x - 1, y, -1, 0);
+        }
+    }
+
+    /**
+     * Jumps from a neighbor of a cell and opens the jump point found, if it is shorter to reach this way
+     */
+    private void jumpFrom(int cell, int x, int y, int dx, int dy) {
+        int jumpPoint = jump(x, y, dx, dy);
+        if (jumpPoint < 0 || closedIn[jumpPoint] == search)
+            return;
+        double tempDist = dist[cell] + octile(cell, jumpPoint);
+        if (openedIn[jumpPoint] != search || tempDist < dist[jumpPoint])
+            open(jumpPoint, tempDist, cell);
+    }
+
+    /**
+     * Moves from a cell in a direction until reaching a cell a shortest path may turn at
+     *
+     * @return the jump point reached, or -1 if the run ends at an occupied cell or a wall
+     */
+    private int jump(int x, int y, int dx, int dy) {
+        while (isFree(x, y)) {
+            if (x == goalColumn && y == goalRow)
+                return y * columns + x;
+            if (dx != 0 && dy != 0) {
+                /*Diagonal runs stop where a straight run from them finds a jump point*/
+                if (jump(x + dx, y, dx, 0) >= 0 || jump(x, y + dy, 0, dy) >= 0)
+                    return y * columns + x;
+            } else if (dx != 0) {
+                /*A cell beside the run opens up after being blocked, so a path may turn into it here*/
+                if ((isFree(x, y - 1) && !isFree(x - dx, y - 1)) || (isFree(x, y + 1) && !isFree(x - dx, y + 1)))
+                    return y * columns + x;
+            } else {
+                if ((isFree(x - 1, y) && !isFree(x - 1, y - dy)) || (isFree(x + 1, y) && !isFree(x + 1, y - dy)))
+                    return y * columns + x;
+            }
+            if (!isFree(x + dx, y) || !isFree(x, y + dy)) // Diagonal moves can not cut a corner
+                return -1;
+            x += dx;
+            y += dy;
+        }
+        return -1;
+    }
+
+    private void open(int cell, double distance, int from) {
+        openedIn[cell] = search;
+        dist[cell] = distance;
+        parent[cell] = from;
+        openSet.add(cell, distance + octile(cell, goalRow * columns + goalColumn));
+    }
+
+    private boolean isFree(int x, int y) {
+        return grid.isFree(x, y);
+    }
+
+    /**
+     * @return length of the shortest 8 connected path between two cells with nothing in the way
+     */
+    private double octile(int a, int b) {
+        int dx = Math.abs(a % columns - b % columns);
+        int dy = Math.abs(a / columns - b / columns);
+        return (Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy)) * grid.getResolution();
+    }
+
+    /**
+     * Finds the free cell whose center is nearest a position
+     *
+     * @return the cell, or -1 if every cell is occupied
+     */
+    private int nearestFree(Position pos) {
+        int column = grid.column(pos.getX());
+        int row = grid.row(pos.getY());
+        if (isFree(column, row))
+            return row * columns + column;
+        int best = -1;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int ring = 1; ring < Math.max(columns, grid.getRows()); ring++) {
+            // Every cell past this ring is further than the best one found
+            if ((ring - 1) * grid.getResolution() > bestDist)
+                break;
+            for (int y = row - ring; y <= row + ring; y++) {
+                // Only the edge of the ring, the inside was searched already
+                int step = (y == row - ring || y == row + ring) ? 1 : 2 * ring;
+                for (int x = column - ring; x <= column + ring; x += step) {
+                    if (!isFree(x, y))
+                        continue;
+                    double d = Math.hypot(grid.centerX(x) - pos.getX(), grid.centerY(y) - pos.getY());
+                    if (d < bestDist) {
+                        best = y * columns + x;
+                        bestDist = d;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /*Post-search processing*/
+
+    /**
+     * Constructs the path from the jump points the goal cell was reached through, going
+     * straight from each point to the furthest later one in line of sight, and sets up the
+     * heading of each point
+     */
+    private Path createPath(Position from, Position to, int startCell, int goalCell) {
+        boolean startMoved = startCell != grid.row(from.getY()) * columns + grid.column(from.getX());
+        boolean goalMoved = goalCell != grid.row(to.getY()) * columns + grid.column(to.getX());
+
+        /*The points to cut across: the jump points, with the start and end positions in place of their cells*/
+        int length = 0;
+        for (int cell = goalCell; cell >= 0; cell = parent[cell])
+            length++;
+        Position[] jumpPoints = new Position[length];
+        for (int cell = goalCell, i = length - 1; cell >= 0; cell = parent[cell], i--)
+            jumpPoints[i] = center(cell);
+        if (!startMoved)
+            jumpPoints[0] = new Position(from.getX(), from.getY(), from.getHeading());
+        if (!goalMoved)
+            jumpPoints[length - 1] = new Position(to.getX(), to.getY());
+
+        // Not Path.addLast, which would drop points close together and join two segments that were not checked
+        ArrayList<Position> points = new ArrayList<>();
+        if (startMoved) // Start was in an occupied cell, leave it for the nearest free one first
+            points.add(new Position(from.getX(), from.getY(), from.getHeading()));
+        points.add(jumpPoints[0]);
+        for (int i = 0; i < length - 1; ) {
+            int next = length - 1;
+            while (next > i + 1 && !isInSight(jumpPoints[i], jumpPoints[next]))
+                next--;
+            points.add(jumpPoints[next]);
+            i = next;
+        }
+        if (goalMoved) // End was in an occupied cell, reached from the nearest free one
+            points.add(new Position(to.getX(), to.getY()));
+
+        for (int i = 1; i < points.size(); i++)
+            points.get(i).setHeading(points.get(i - 1).getHeadingTo(points.get(i)));
+        return new Path(points);
+    }
+
+    /**
+     * Walks the cells the line between two positions crosses. Where it passes exactly through a
+     * corner, both cells beside the corner have to be free, as for a diagonal move.
+     *
+     * @return whether every cell along the line is free
+     */
+    private boolean isInSight(Position from, Position to) {
+        /*Positions in cells*/
+        double x0 = (from.getX() + Position.ARENA_WIDTH() / 2) / grid.getResolution();
+        double y0 = from.getY() / grid.getResolution();
+        double x1 = (to.getX() + Position.ARENA_WIDTH() / 2) / grid.getResolution();
+        double y1 = to.getY() / grid.getResolution();
+        int x = (int) Math.floor(x0);
+        int y = (int) Math.floor(y0);
+        int stepX = x1 > x0 ? 1 : -1;
+        int stepY = y1 > y0 ? 1 : -1;
+        /*Fraction of the way along the line to the next column and row boundary, and between boundaries*/
+        double deltaX = x1 == x0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(x1 - x0);
+        double deltaY = y1 == y0 ? Double.POSITIVE_INFINITY : 1 / Math.abs(y1 - y0);
+        double nextX = x1 == x0 ? Double.POSITIVE_INFINITY : (stepX > 0 ? x + 1 - x0 : x0 - x) * deltaX;
+        double nextY = y1 == y0 ? Double.POSITIVE_INFINITY : (stepY > 0 ? y + 1 - y0 : y0 - y) * deltaY;
+        for (int n = Math.abs((int) Math.floor(x1) - x) + Math.abs((int) Math.floor(y1) - y); n > 0; n--) {
+            if (nextX < nextY - CORNER_TOLERANCE) {
+                x += stepX;
+                nextX += deltaX;
+            } else if (nextY < nextX - CORNER_TOLERANCE) {
+                y += stepY;
+                nextY += deltaY;
+            } else {
+                if (!isFree(x + stepX, y) || !isFree(x, y + stepY))
+                    return false;
+                x += stepX;
+                y += stepY;
+                nextX += deltaX;
+                nextY += deltaY;
+                n--;
+            }
+            if (!isFree(x, y))
+                return false;
+        }
+        return true;
+    }
+
+    private Position center(int cell) {
+        return new Position(grid.centerX(cell % columns), grid.centerY(cell / columns));
+    }
+
+    /**
+     * Open set of the search. A binary min-heap of cells by key. A cell is added again when a
+     * shorter path to it is found rather than moved, and the stale entry is skipped once polled.
+     */
+    private static class CellQueue {
+
+        private int[] cells;
+        private double[] keys;
+        private int size = 0;
+
+        CellQueue(int capacity) {
+            cells = new int[capacity];
+            keys = new double[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int cell, double key) {
+            if (size == cells.length) {
+                cells = Arrays.copyOf(cells, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (keys[parent] <= key)
+                    break;
+                cells[i] = cells[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            cells[i] = cell;
+            keys[i] = key;
+        }
+
+        /**
+         * Removes and returns the cell with minimum key
+         */
+        int poll() {
+            int min = cells[0];
+            int cell = cells[--size];
+            double key = keys[size];
+            int i = 0;
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && keys[child + 1] < keys[child])
+                    child++;
+                if (keys[child] >= key)
+                    break;
+                cells[i] = cells[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            cells[i] = cell;
+            keys[i] = key;
+            return min;
+        }
+    }
+}
@@ -101,9 +101,10 @@ public class LogModule extends Module {
                 .build();
         this.channel.basicPublish(exchangeName, "state.subscribe", null, msg.toByteArray());
 
-        String queueName = channel.queueDeclare().getQueue();
-        channel.queueBind(queueName, exchangeName, "logModule");
-        channel.basicConsume(queueName, true, new SensorConsumer());
+        // Named after the reply key, so StateModule can see if we fall behind
+        channel.queueDeclare("logModule", false, false, false, null);
+        channel.queueBind("logModule", exchangeName, "logModule");
+        channel.basicConsume("logModule", true, new SensorConsumer());
     }
 
     /**
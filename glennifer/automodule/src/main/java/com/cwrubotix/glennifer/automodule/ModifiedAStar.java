@@ -1,6 +1,8 @@
 package com.cwrubotix.glennifer.automodule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Complete graph implementation of A* search algorithm with account for obstacles that are not visible before attaining certain proximity.
@@ -17,6 +19,10 @@ public class ModifiedAStar implements PathFindingAlgorithm {
      * ArrayList storing all nodes that are created during the run
      */
     private ArrayList<AStarNode> nodes = new ArrayList<>(75);
+    /**
+     * Obstacles hashed into a grid over the arena, so that checking an edge only tests the obstacles near it
+     */
+    private final ObstacleGrid obstacleGrid = new ObstacleGrid();
     /**
      * AStarNode that represents start point
      */
@@ -27,6 +33,22 @@ public class ModifiedAStar implements PathFindingAlgorithm {
     private AStarNode end;
     /**Clearance distance needed from the center of the robot*/
     private final double CLEARANCE = 0.80F;
+    /**Keys of the incremental search closer than this are treated as equal*/
+    private static final double KEY_TOLERANCE = 1e-9;
+    /**
+     * Whether the nodes hold the distances of an incremental search toward the end node, which
+     * the next new obstacle can repair instead of searching again
+     */
+    private boolean incremental = false;
+    /**
+     * Open set of the incremental search, kept between replans
+     */
+    private OpenSet incrementalOpenSet;
+    /**
+     * Added to keys so the ones already in the open set stay valid as the start node moves:
+     * the sum of the distances the start has moved between replans
+     */
+    private double keyModifier;
 
     /**
      * Returns the list of obstacles
@@ -49,14 +71,16 @@ public class ModifiedAStar implements PathFindingAlgorithm {
     protected void setStart(Position startPosition){
 	start = new AStarNode(startPosition);
 	start.setHeading(startPosition.getHeading());
+	register(start);
 	connectToAll(start);
-	addNode(getNodes(), start);
     }
     
-    protected void setEnd(Position endPosition){
+    @Override
+    public void setEnd(Position endPosition){
+	incremental = false;
 	end = new AStarNode(endPosition);
+	register(end);
 	connectToAll(end);
-	addNode(getNodes(), end);
     }
 
     @Override
@@ -68,13 +92,14 @@ public class ModifiedAStar implements PathFindingAlgorithm {
     public Path computePath(Position startPosition, Position endPosition) {
 
 	/*Setting up fields and nodes*/
+        incremental = false;
         start = new AStarNode(startPosition);
         start.setHeading(startPosition.getHeading());
         end = new AStarNode(endPosition);
+        register(start);
+        register(end);
         start.connect(end);
         end.connect(start);
-        addNode(getNodes(), start);
-        addNode(getNodes(), end);
 	
 	/*Calls aStar method*/
         Path result = aStar(start, end);
@@ -84,16 +109,41 @@ public class ModifiedAStar implements PathFindingAlgorithm {
         return result;
     }
 
+    /**
+     * Replans from the current position around a new obstacle. The first replan toward an end
+     * node searches the whole graph, backward from the end (D* Lite). Later ones only drop the
+     * edges the new obstacle blocks, connect the nodes added around it, and repair the distances
+     * of the nodes whose shortest path changed.
+     */
     @Override
     public Path computePath(Position currentPos, Obstacle newObstacle) {
-	setStart(currentPos);
-        getObstacles().add(newObstacle);          //Adding obstacle to the list
-        createNodes(newObstacle);                 //Creates new AStarNodes around the obstacle registered.
+        ArrayList<AStarNode> changed = new ArrayList<>();
+        addObstacle(newObstacle, changed);          //Adding obstacle, dropping the edges it blocks
+        AStarNode previousStart = start;
+        start = null; // No longer the start, so the nodes added next do not connect to it if it is too close to an obstacle
+        ArrayList<AStarNode> added = createNodes(newObstacle); //Creates new AStarNodes around the obstacle registered.
 
-        connectToAll(); // Reconstructs the graph to make sure no edges run into obstacles.
-		
-        /*Calls aStar method*/
-        Path result = aStar(start, end);
+        start = new AStarNode(currentPos);
+        start.setHeading(currentPos.getHeading());
+        register(start);
+        added.add(start);
+
+        if (incremental) {
+            for (AStarNode node : added) {
+                connectToAll(node);
+            }
+            keyModifier += previousStart.getDistTo(start);
+            changed.addAll(added);
+            for (AStarNode node : changed) {
+                updateNode(node);
+            }
+        } else {
+            connectToAll(); // Full rebuild once, later replans only change what the obstacle touches
+            incrementalSetup();
+        }
+        computeShortestDists();
+
+        Path result = extractPath();
         
 	/*Post processing*/
         setAngles(result);
@@ -103,41 +153,146 @@ public class ModifiedAStar implements PathFindingAlgorithm {
     /*Helper methods for computePath(currentPos, newObstacle) method*/
 
     /**
-     * Creates 6 nodes around the obstacle given
+     * Creates 10 nodes around the obstacle given
      *
      * @param obs
+     * @return the nodes added, leaving out those too close to a node already in the graph
      */
-    private void createNodes(Obstacle obs){
-	
+    private ArrayList<AStarNode> createNodes(Obstacle obs){
+	ArrayList<AStarNode> added = new ArrayList<>(10);
 	for(int i = 0; i < 10; i++){
 	    double angle = Math.PI * i / 5;
 	    double clearance = (CLEARANCE + 0.3F) / 2 + obs.getRadius();
 	    double x_pos = (obs.getX() + clearance * Math.cos(angle));
-	    if(x_pos > Position.ARENA_WIDTH() / -2 + Position.WALL_CLEARANCE() && x_pos < Position.ARENA_WIDTH() / 2 - Position.WALL_CLEARANCE())
-		addNode(getNodes(), new AStarNode(x_pos, (obs.getY() + clearance * Math.sin(angle))));
+	    if(x_pos > Position.ARENA_WIDTH() / -2 + Position.WALL_CLEARANCE() && x_pos < Position.ARENA_WIDTH() / 2 - Position.WALL_CLEARANCE()){
+		AStarNode node = new AStarNode(x_pos, (obs.getY() + clearance * Math.sin(angle)));
+		if(addNode(node))
+		    added.add(node);
+	    }
+	}
+	return added;
+    }
+
+    /**
+     * Adds a node to the graph if there is not one at its position already
+     *
+     * @param node the node to add
+     * @return whether the node was added
+     */
+    private boolean addNode(AStarNode node){
+	if(!getNodes().contains(node)){
+	    register(node);
+	    return true;
 	}
+	return false;
+    }
+
+    /**
+     * Adds a node to the graph and records which of the nodes already in it can be reached
+     * from it. Nodes at the same position, such as a start node where an earlier one was, are
+     * never visible to each other: the incremental search needs every edge to have a positive length.
+     * Nodes too close to an obstacle are not visible at all, but for the start node, which is
+     * where the robot already is.
+     *
+     * @param node the node to add, without connections yet
+     */
+    private void register(AStarNode node) {
+        node.index = getNodes().size();
+        node.covered = isCovered(node);
+        if (node.covered && node != start) {
+            getNodes().add(node);
+            return;
+        }
+        for (AStarNode other : getNodes()) {
+            if ((!other.covered || other == start) && node.getDistTo(other) > 0 && isValid(node, other)) {
+                node.visible.set(other.index);
+                other.visible.set(node.index);
+            }
+        }
+        getNodes().add(node);
+    }
+
+    /**
+     * Adds an obstacle, clearing the visibility of the edges it is in the way of and removing them from the graph.
+     * Nodes too close to the obstacle lose all their edges, as does an earlier start node too close to an
+     * obstacle, since the start is about to move.
+     *
+     * @param obs the new obstacle
+     * @param changed collects the nodes that lost an edge
+     */
+    private void addObstacle(Obstacle obs, ArrayList<AStarNode> changed) {
+        getObstacles().add(obs);
+        obstacleGrid.add(obs, clearance(obs));
+        for (AStarNode node : getNodes()) {
+            boolean lost = false;
+            BitSet visible = node.visible;
+            node.covered |= node.getDistTo(obs) < clearance(obs);
+            // Each edge once, from the node with the lower index, or every edge of a node too close
+            for (int i = visible.nextSetBit(node.covered ? 0 : node.index + 1); i >= 0; i = visible.nextSetBit(i + 1)) {
+                AStarNode other = getNodes().get(i);
+                if (node.covered || isOnTheWay(node, other, obs)) {
+                    visible.clear(i);
+                    other.visible.clear(node.index);
+                    node.disconnect(other);
+                    other.disconnect(node);
+                    lost = true;
+                    if (!other.changed) {
+                        other.changed = true;
+                        changed.add(other);
+                    }
+                }
+            }
+            if (lost && !node.changed) {
+                node.changed = true;
+                changed.add(node);
+            }
+        }
+        for (AStarNode node : changed) {
+            node.changed = false;
+        }
+    }
+
+    /**
+     * Checks whether a node is closer to an obstacle than the clearance for robot
+     *
+     * @param node the node
+     * @return true if the node is too close to an obstacle
+     */
+    private boolean isCovered(AStarNode node) {
+        Obstacle[] cell = obstacleGrid.get(ObstacleGrid.column(node.getX()), ObstacleGrid.row(node.getY()));
+        if (cell != null) {
+            for (Obstacle obs : cell) {
+                if (node.getDistTo(obs) < clearance(obs))
+                    return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Reconstructs the graph making sure that no edge has an obstacle in the way
+     * Reconstructs the graph from the visible edges
      */
     private void connectToAll() {
         for (AStarNode node : getNodes()) {
             node.resetConnection();
-            for (AStarNode connect : getNodes()) {
-                if (isValid(node, connect)) {
-                    node.connect(connect);
-                }
+            BitSet visible = node.visible;
+            for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+                node.connect(getNodes().get(i));
             }
         }
     }
     
+    /**
+     * Connects a node both ways to every node added before it that it can see
+     *
+     * @param newNode the node to connect
+     */
     private void connectToAll(AStarNode newNode){
-	for(AStarNode node : getNodes()){
-	    if(isValid(newNode, node)){
-		newNode.connect(node);
-		node.connect(newNode);
-	    }
+	BitSet visible = newNode.visible;
+	for(int i = visible.nextSetBit(0); i >= 0 && i < newNode.index; i = visible.nextSetBit(i + 1)){
+	    AStarNode node = getNodes().get(i);
+	    newNode.connect(node);
+	    node.connect(newNode);
 	}
     }
 
@@ -149,60 +304,78 @@ public class ModifiedAStar implements PathFindingAlgorithm {
      * @return true if there is no obstacle that is between the two nodes given
      */
     private boolean isValid(AStarNode start, AStarNode end) {
-        boolean check = true;
-        for (Obstacle obs : getObstacles()) {
-            if (isOnTheWay(start, end, obs))
-                check = false;
-        }
-        return check;
+	/*Only the obstacles in the cells the edge passes through, row by row*/
+	double dx = end.getX() - start.getX();
+	double dy = end.getY() - start.getY();
+	int firstRow = ObstacleGrid.row(Math.min(start.getY(), end.getY()));
+	int lastRow = ObstacleGrid.row(Math.max(start.getY(), end.getY()));
+	for (int row = firstRow; row <= lastRow; row++) {
+	    /*Part of the edge within this row, the first and last rows also take what is past the arena*/
+	    double x0 = start.getX();
+	    double x1 = end.getX();
+	    if (firstRow != lastRow) {
+		double bottom = row == firstRow ? Double.NEGATIVE_INFINITY : row * ObstacleGrid.CELL_SIZE;
+		double top = row == lastRow ? Double.POSITIVE_INFINITY : (row + 1) * ObstacleGrid.CELL_SIZE;
+		double t0 = Math.min(1, Math.max(0, (bottom - start.getY()) / dy));
+		double t1 = Math.min(1, Math.max(0, (top - start.getY()) / dy));
+		x0 = start.getX() + t0 * dx;
+		x1 = start.getX() + t1 * dx;
+	    }
+	    int lastColumn = ObstacleGrid.column(Math.max(x0, x1));
+	    for (int column = ObstacleGrid.column(Math.min(x0, x1)); column <= lastColumn; column++) {
+		Obstacle[] cell = obstacleGrid.get(column, row);
+		if (cell == null)
+		    continue;
+		for (Obstacle obs : cell) {
+		    if (isOnTheWay(start, end, obs))
+			return false;
+		}
+	    }
+	}
+	return true;
     }
 
     /**
-     * Calculates and determines whether give obstacle is in the way between two AStarNodes given
+     * Calculates and determines whether give obstacle is in the way between two AStarNodes given.
+     * The same either way along the edge.
      *
      * @param start the start node
      * @param end   the end node
      * @param obs   the Obstacle being evaluated
-     * @return true if the obstacle is between two nodes with account for clearance for robot
+     * @return true if the edge passes closer to the obstacle than the clearance for robot
      */
-
     private boolean isOnTheWay(AStarNode start, AStarNode end, Obstacle obs){
+	double reach = clearance(obs);
+	
 	/*Making sure whether obstacle even has a chance to be on the way*/
-	double x_left_bound = Math.min(start.getX(), end.getX()) - obs.getRadius() - CLEARANCE;
-	double x_right_bound = Math.max(start.getX(), end.getY()) + obs.getRadius() + CLEARANCE;
-	double y_top_bound = Math.min(start.getY(), end.getY()) - obs.getRadius() - CLEARANCE;
-	double y_bottom_bound = Math.max(start.getY(), end.getY()) + obs.getRadius() + CLEARANCE;
+	double x_left_bound = Math.min(start.getX(), end.getX()) - reach;
+	double x_right_bound = Math.max(start.getX(), end.getX()) + reach;
+	double y_top_bound = Math.min(start.getY(), end.getY()) - reach;
+	double y_bottom_bound = Math.max(start.getY(), end.getY()) + reach;
 	
 	/*If it is not within the range we should worry about, return false*/
 	if(obs.getX() < x_left_bound || obs.getX() > x_right_bound || obs.getY() < y_top_bound || obs.getY() > y_bottom_bound){
 	    return false;
 	}
 	
-	/*Angle between the tangent line of clearance range that intersects start node position and the line between start node and center of Obstacle*/
-        double theta = Math.atan((CLEARANCE / 2 + obs.getRadius()) / Math.abs(start.getDistTo(obs)));
+	/*Point along the edge closest to the center of the obstacle, as a fraction of the way from start to end*/
+	double dx = end.getX() - start.getX();
+	double dy = end.getY() - start.getY();
+	double t = ((obs.getX() - start.getX()) * dx + (obs.getY() - start.getY()) * dy) / (dx * dx + dy * dy);
 	
-	/*Absolute angle positions of two tangent lines of clearance ranges that intersects start position*/
-        double leftBound = start.getHeadingTo(obs) - theta;
-        double rightBound = start.getHeadingTo(obs) + theta;
-
-        if (rightBound > Math.PI * 2) rightBound = rightBound - 2 * Math.PI; // In case the angle bounds
-        if (leftBound < 0) leftBound = leftBound + 2 * Math.PI;              // exceed the angle range
-
-        double angle = start.getHeadingTo(end); // absolute angle position of end node relative to the start node
-
-        if (leftBound < rightBound) { // Normal case
-            if (angle > leftBound && angle < rightBound) return true;
-            else return false;
-        } else { // Special case, when either leftBound or rightBound value exceeded angle range
-            if (angle > rightBound && angle < leftBound) return false;
-            else return true;
-        }
-
+	/*If the closest point is a node, the edge is clear. Nodes too close to an obstacle have no edges but the start node's*/
+	if(!(t > 0 && t < 1)){
+	    return false;
+	}
+	return Math.hypot(start.getX() + t * dx - obs.getX(), start.getY() + t * dy - obs.getY()) < reach;
     }
-    
-    private void addNode(ArrayList<AStarNode> list, AStarNode node){
-	if(!list.contains(node))
-	    list.add(node);
+
+    /**
+     * @param obs the obstacle
+     * @return how far the center of the robot has to stay from the center of the obstacle
+     */
+    private double clearance(Obstacle obs) {
+        return CLEARANCE / 2 + obs.getRadius();
     }
     
     /*Main A* implementation method*/
@@ -217,26 +390,26 @@ public class ModifiedAStar implements PathFindingAlgorithm {
     private Path aStar(AStarNode start, AStarNode end) {
 
 	/*pre-search setup*/
+        incremental = false; // The open set fields of the nodes are reused, so the next replan searches again
         astarSetup(end);
-        AStarNode current = start;
-        current.updateDist(0.0F);
-        ArrayList<AStarNode> openSet = new ArrayList<>(getNodes().size());
-        addNode(openSet, start);
+        start.updateDist(0.0F);
+        OpenSet openSet = new OpenSet(getNodes().size());
+        openSet.add(start, 0, 0);
         start.setFound(true);
 
         while (!openSet.isEmpty()) { // While there are nodes to evaluate
+            AStarNode current = openSet.poll(); // Removes the node with minimum fScore, whose shortest distance from start position is determined
             if (current.equals(end)) // When reached the destination
                 return createPath(start, end);
-            openSet.remove(current);  // Removes the node whose shortest distance from start position is determined
             current.setVisited(true); // marking the field that is added to closedSet
             
             for (AStarNode neighbor : current.getConnections()) { 
                 if (!neighbor.isVisited() && !neighbor.found()) { // if it is not seen before, add to open list
-                    addNode(openSet,neighbor);
                     neighbor.setFound(true);
                     neighbor.setPrevious(current);
                     neighbor.setHeruistic(end);
                     neighbor.updateDist(current.getDist() + current.getDistTo(neighbor));
+                    openSet.add(neighbor, neighbor.getFScore(), 0);
                 }
                 else if(!neighbor.isVisited()){ //If seen before, update cost.
                     double tempGScore = current.getDist() + current.getDistTo(neighbor);
@@ -244,10 +417,10 @@ public class ModifiedAStar implements PathFindingAlgorithm {
                         neighbor.updateDist(tempGScore);
                         neighbor.setPrevious(current);
                         neighbor.setHeruistic(end);
+                        openSet.update(neighbor, neighbor.getFScore(), 0); // fScore changed, move it to its new place
                     }
                 }
             }
-            current = getMinFScore(openSet); // setting next node as a node with minimum fScore.
         }
 	
 	/*If search ends without returning a path, there is no possible path.*/
@@ -257,25 +430,326 @@ public class ModifiedAStar implements PathFindingAlgorithm {
     /*Helper methods for astar(start, end) method*/
 
     /**
-     * Returns the node with minimun fScore among the nodes in the given list
-     *
-     * @param openSet the given list to search
-     * @return the node with minimum fScore among the nodes in the given list
-     */
-    private AStarNode getMinFScore(ArrayList<AStarNode> openSet) {
-        AStarNode save = null;
-        for (AStarNode neighbor : openSet) { //linear search
-            if (save == null) {
-                save = neighbor;
-            } else {
-                if (save.getFScore() > neighbor.getFScore())
-                    save = neighbor;
+     * Open set of a search. A binary min-heap of nodes ordered by a two part key, compared by
+     * the first part and then the second. Each node keeps its key and its index in the heap, so
+     * a node whose key changed can be moved to its new place in O(log n) without searching for it.
+     * A* keys nodes by fScore alone, the incremental search uses both parts.
+     */
+    private static class OpenSet {
+
+        /**
+         * the heap, with the children of index i at 2i + 1 and 2i + 2
+         */
+        private AStarNode[] heap;
+        /**
+         * number of nodes in the heap
+         */
+        private int size = 0;
+
+        /**
+         * Creates empty open set
+         *
+         * @param capacity the number of nodes expected, the heap grows past it if needed
+         */
+        OpenSet(int capacity) {
+            heap = new AStarNode[Math.max(1, capacity)];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Returns whether the node given is in the open set
+         *
+         * @param node the node to check
+         * @return whether the node given is in the open set
+         */
+        boolean contains(AStarNode node) {
+            return node.heapIndex >= 0;
+        }
+
+        /**
+         * Returns the node with minimum key without removing it
+         *
+         * @return the node with minimum key
+         */
+        AStarNode peek() {
+            return heap[0];
+        }
+
+        /**
+         * Adds the node given to the open set
+         *
+         * @param node the node to add, which must not be in the open set already
+         * @param key1 first part of its key
+         * @param key2 second part of its key
+         */
+        void add(AStarNode node, double key1, double key2) {
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, size * 2);
+            node.key1 = key1;
+            node.key2 = key2;
+            place(node, size++);
+            siftUp(node.heapIndex);
+        }
+
+        /**
+         * Removes and returns the node with minimum key
+         *
+         * @return the node with minimum key
+         */
+        AStarNode poll() {
+            AStarNode min = heap[0];
+            remove(min);
+            return min;
+        }
+
+        /**
+         * Removes the node given from the open set
+         *
+         * @param node the node to remove, which must be in the open set
+         */
+        void remove(AStarNode node) {
+            int i = node.heapIndex;
+            node.heapIndex = -1;
+            AStarNode last = heap[--size];
+            heap[size] = null;
+            if (i < size) {
+                place(last, i);
+                siftUp(i);
+                siftDown(last.heapIndex);
+            }
+        }
+
+        /**
+         * Changes the key of a node in the open set
+         *
+         * @param node the node in the open set
+         * @param key1 first part of its new key
+         * @param key2 second part of its new key
+         */
+        void update(AStarNode node, double key1, double key2) {
+            node.key1 = key1;
+            node.key2 = key2;
+            // Keys can go either way
+            siftUp(node.heapIndex);
+            siftDown(node.heapIndex);
+        }
+
+        private void siftUp(int i) {
+            AStarNode node = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!isLess(node, heap[parent]))
+                    break;
+                place(heap[parent], i);
+                i = parent;
+            }
+            place(node, i);
+        }
+
+        private void siftDown(int i) {
+            AStarNode node = heap[i];
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && isLess(heap[child + 1], heap[child]))
+                    child++;
+                if (!isLess(heap[child], node))
+                    break;
+                place(heap[child], i);
+                i = child;
+            }
+            place(node, i);
+        }
+
+        private static boolean isLess(AStarNode a, AStarNode b) {
+            return a.key1 < b.key1 || (a.key1 == b.key1 && a.key2 < b.key2);
+        }
+
+        private void place(AStarNode node, int i) {
+            heap[i] = node;
+            node.heapIndex = i;
+        }
+    }
+
+
+    /**
+     * Obstacles hashed into a uniform grid over the arena. Each cell holds every obstacle whose
+     * clearance reaches into it, so an edge only needs the obstacles in the cells it passes through.
+     * Obstacles past the walls go into the nearest edge cells.
+     */
+    private static class ObstacleGrid {
+
+        static final double CELL_SIZE = 0.5;
+        private static final int COLUMNS = (int) Math.ceil(Position.ARENA_WIDTH() / CELL_SIZE);
+        private static final int ROWS = (int) Math.ceil(Position.ARENA_HEIGHT() / CELL_SIZE);
+        /**
+         * extra reach given to each obstacle, so rounding at the edge of a cell can not miss it
+         */
+        private static final double MARGIN = 1e-6;
+
+        /**
+         * obstacles in each cell by row * COLUMNS + column, null for none
+         */
+        private final Obstacle[][] cells = new Obstacle[COLUMNS * ROWS][];
+
+        /**
+         * Adds an obstacle to every cell within reach of it
+         *
+         * @param obs   the obstacle
+         * @param reach how far from its center an edge has to stay
+         */
+        void add(Obstacle obs, double reach) {
+            reach += MARGIN;
+            for (int row = row(obs.getY() - reach); row <= row(obs.getY() + reach); row++) {
+                for (int column = column(obs.getX() - reach); column <= column(obs.getX() + reach); column++) {
+                    Obstacle[] cell = cells[row * COLUMNS + column];
+                    cell = cell == null ? new Obstacle[1] : Arrays.copyOf(cell, cell.length + 1);
+                    cell[cell.length - 1] = obs;
+                    cells[row * COLUMNS + column] = cell;
+                }
             }
         }
-        return save;
+
+        /**
+         * @return the obstacles reaching into a cell, or null if there are none
+         */
+        Obstacle[] get(int column, int row) {
+            return cells[row * COLUMNS + column];
+        }
+
+        static int column(double x) {
+            int column = (int) Math.floor((x + Position.ARENA_WIDTH() / 2) / CELL_SIZE);
+            return Math.min(COLUMNS - 1, Math.max(0, column));
+        }
+
+        static int row(double y) {
+            int row = (int) Math.floor(y / CELL_SIZE);
+            return Math.min(ROWS - 1, Math.max(0, row));
+        }
     }
     
     
+    /*Incremental search (D* Lite), backward from the end node to the start node*/
+
+    /**
+     * Starts an incremental search toward the end node, with no distances known
+     */
+    private void incrementalSetup() {
+        for (AStarNode node : getNodes()) {
+            node.endDist = Double.POSITIVE_INFINITY;
+            node.endDistLookahead = Double.POSITIVE_INFINITY;
+            node.heapIndex = -1;
+        }
+        keyModifier = 0;
+        incrementalOpenSet = new OpenSet(getNodes().size());
+        end.endDistLookahead = 0;
+        incrementalOpenSet.add(end, start.getDistTo(end), 0);
+        incremental = true;
+    }
+
+    /**
+     * Recomputes the lookahead distance of a node from its neighbors, and puts it in the open
+     * set if it needs expanding or takes it out if it no longer does
+     *
+     * @param node the node whose neighbors or their distances changed
+     */
+    private void updateNode(AStarNode node) {
+        if (node != end) {
+            double best = Double.POSITIVE_INFINITY;
+            for (AStarNode connect : node.getConnections()) {
+                best = Math.min(best, node.getDistTo(connect) + connect.endDist);
+            }
+            node.endDistLookahead = best;
+        }
+        boolean inconsistent = node.endDist != node.endDistLookahead;
+        if (incrementalOpenSet.contains(node)) {
+            if (inconsistent)
+                incrementalOpenSet.update(node, key1(node), key2(node));
+            else
+                incrementalOpenSet.remove(node);
+        } else if (inconsistent) {
+            incrementalOpenSet.add(node, key1(node), key2(node));
+        }
+    }
+
+    private double key2(AStarNode node) {
+        return Math.min(node.endDist, node.endDistLookahead);
+    }
+
+    private double key1(AStarNode node) {
+        return key2(node) + start.getDistTo(node) + keyModifier;
+    }
+
+    private boolean isKeyLess(double a1, double a2, double b1, double b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+
+    /**
+     * Expands nodes until the start node's distance to the end is known
+     */
+    private void computeShortestDists() {
+        OpenSet openSet = incrementalOpenSet;
+        // Keys of nodes on a straight line through the start are equal but for rounding, so
+        // nodes within KEY_TOLERANCE of the start's key are expanded too rather than left open
+        while (!openSet.isEmpty()
+                && (openSet.peek().key1 < key1(start) + KEY_TOLERANCE
+                    || start.endDist != start.endDistLookahead)) {
+            AStarNode node = openSet.peek();
+            double newKey1 = key1(node);
+            double newKey2 = key2(node);
+            if (isKeyLess(node.key1, node.key2, newKey1, newKey2)) { // Key out of date since the start moved
+                openSet.update(node, newKey1, newKey2);
+            } else if (node.endDist > node.endDistLookahead) { // Distance got shorter, settle it
+                node.endDist = node.endDistLookahead;
+                openSet.remove(node);
+                for (AStarNode connect : node.getConnections()) {
+                    updateNode(connect);
+                }
+            } else { // Distance got longer, so recompute it and everything that went through it
+                node.endDist = Double.POSITIVE_INFINITY;
+                updateNode(node);
+                for (AStarNode connect : node.getConnections()) {
+                    updateNode(connect);
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows the known distances from the start node to the end node
+     *
+     * @return the path from the start node to the end node
+     * @throws PathFindingAlgorithm.AlgorithmFailureException if the end node can not be reached
+     */
+    private Path extractPath() {
+        if (start.endDist == Double.POSITIVE_INFINITY)
+            throw new PathFindingAlgorithm.AlgorithmFailureException();
+        // Every node goes in, addLast would drop one close to the one before and cut the corner
+        ArrayList<Position> path = new ArrayList<>();
+        path.add(start);
+        AStarNode current = start;
+        // Each step gets strictly closer to the end, so no node is visited twice
+        for (int steps = 0; current != end; steps++) {
+            AStarNode next = null;
+            double best = Double.POSITIVE_INFINITY;
+            for (AStarNode connect : current.getConnections()) {
+                double dist = current.getDistTo(connect) + connect.endDist;
+                if (dist < best) {
+                    best = dist;
+                    next = connect;
+                }
+            }
+            if (next == null || steps > getNodes().size())
+                throw new PathFindingAlgorithm.AlgorithmFailureException();
+            next.setPrevious(current);
+            path.add(next);
+            current = next;
+        }
+        return new Path(path);
+    }
+    
     /*Helper methods for pre-setup for new search*/
     
     /**
@@ -287,6 +761,7 @@ public class ModifiedAStar implements PathFindingAlgorithm {
 	for(AStarNode node : getNodes()){
             node.setVisited(false);
             node.setFound(false);
+            node.heapIndex = -1;
             node.updateDist(Float.POSITIVE_INFINITY);
 	}
     }
@@ -360,6 +835,41 @@ public class ModifiedAStar implements PathFindingAlgorithm {
          * indicator of whether this node belongs to open set during each A* search
          */
         private boolean found = false;
+        /**
+         * index of this node in the open set's heap, -1 when it is not in the open set. Shared by
+         * A* and the incremental search, so an A* search ends the incremental one.
+         */
+        private int heapIndex = -1;
+        /**
+         * key of this node in the open set
+         */
+        private double key1;
+        private double key2;
+        /**
+         * incremental search: the known shortest distance from this node to the end node
+         */
+        private double endDist = Double.POSITIVE_INFINITY;
+        /**
+         * incremental search: one step lookahead of endDist, the minimum over neighbors of the
+         * distance to the neighbor plus its endDist. The node needs expanding when they differ.
+         */
+        private double endDistLookahead = Double.POSITIVE_INFINITY;
+        /**
+         * whether this node is closer to an obstacle than the clearance for robot
+         */
+        private boolean covered = false;
+        /**
+         * marks this node while collecting the nodes that lost an edge, so each is collected once
+         */
+        private boolean changed = false;
+        /**
+         * index of this node in the list of nodes
+         */
+        private int index = -1;
+        /**
+         * bit i is set when the node at index i can be reached from this one without an obstacle in the way
+         */
+        private final BitSet visible = new BitSet();
 
         /**
          * Creates AStarNode with given coordinate positions
@@ -389,6 +899,34 @@ public class ModifiedAStar implements PathFindingAlgorithm {
             connected.add(connect);
         }
 
+        /**
+         * Removes given AStarNode from the neighboring list
+         *
+         * @param connect the vertex to remove, compared by identity rather than by position
+         */
+        public void disconnect(AStarNode connect) {
+            for (int i = 0; i < connected.size(); i++) {
+                if (connected.get(i) == connect) {
+                    connected.remove(i);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Returns whether given AStarNode is in the neighboring list
+         *
+         * @param connect the vertex to look for, compared by identity rather than by position
+         * @return whether given AStarNode is in the neighboring list
+         */
+        public boolean isConnectedTo(AStarNode connect) {
+            for (AStarNode node : connected) {
+                if (node == connect)
+                    return true;
+            }
+            return false;
+        }
+
         /**
          * Resets the neighboring list
          */
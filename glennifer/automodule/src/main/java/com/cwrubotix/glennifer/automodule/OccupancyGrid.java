@@ -0,0 +1,197 @@
+package com.cwrubotix.glennifer.automodule;
+
+import java.util.Arrays;
+
+/**
+ * Occupancy grid over the arena, one bit per square cell. Column 0 is at the left wall
+ * (x = -ARENA_WIDTH / 2) and row 0 at y = 0. A cell is occupied when its center is too close
+ * to an obstacle or a wall for the center of the robot, so obstacles are marked already
+ * inflated by the clearance the robot needs.
+ */
+public class OccupancyGrid {
+
+    /**Side of each cell in meters*/
+    private final double resolution;
+    private final int columns;
+    private final int rows;
+    /**Occupancy bits, cell row * columns + column at bit (cell % 64) of word cell / 64*/
+    private final long[] bits;
+
+    /**
+     * Creates an empty grid covering the arena
+     *
+     * @param resolution side of each cell in meters
+     */
+    public OccupancyGrid(double resolution) {
+        if (!(resolution > 0)) {
+            throw new IllegalArgumentException("Grid resolution must be positive");
+        }
+        this.resolution = resolution;
+        columns = (int) Math.ceil(Position.ARENA_WIDTH() / resolution);
+        rows = (int) Math.ceil(Position.ARENA_HEIGHT() / resolution);
+        bits = new long[(columns * rows + 63) / 64];
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the column a x-coordinate falls in, past the walls the nearest one
+     */
+    public int column(double x) {
+        int column = (int) Math.floor((x + Position.ARENA_WIDTH() / 2) / resolution);
+        return Math.min(columns - 1, Math.max(0, column));
+    }
+
+    /**
+     * @return the row a y-coordinate falls in, past the walls the nearest one
+     */
+    public int row(double y) {
+        int row = (int) Math.floor(y / resolution);
+        return Math.min(rows - 1, Math.max(0, row));
+    }
+
+    /**
+     * @return x-coordinate of the centers of the cells in a column
+     */
+    public double centerX(int column) {
+        return (column + 0.5) * resolution - Position.ARENA_WIDTH() / 2;
+    }
+
+    /**
+     * @return y-coordinate of the centers of the cells in a row
+     */
+    public double centerY(int row) {
+        return (row + 0.5) * resolution;
+    }
+
+    /**
+     * @return whether the cell is in the grid and not occupied
+     */
+    public boolean isFree(int column, int row) {
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return false;
+        }
+        int cell = row * columns + column;
+        return (bits[cell >>> 6] & (1L << cell)) == 0;
+    }
+
+    /**
+     * Marks a cell occupied
+     */
+    public void occupy(int column, int row) {
+        int cell = row * columns + column;
+        bits[cell >>> 6] |= 1L << cell;
+    }
+
+    /**
+     * Marks every cell free
+     */
+    public void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    /**
+     * Occupies the cells whose centers are within a distance of the walls
+     *
+     * @param clearance how far the center of the robot has to stay from the walls
+     */
+    public void occupyWalls(double clearance) {
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                double x = centerX(column);
+                double y = centerY(row);
+                if (x < clearance - Position.ARENA_WIDTH() / 2 || x > Position.ARENA_WIDTH() / 2 - clearance
+                        || y < clearance || y > Position.ARENA_HEIGHT() - clearance) {
+                    occupy(column, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Occupies the cells whose centers are within a distance of a circular obstacle's center
+     *
+     * @param x      x-coordinate of the center
+     * @param y      y-coordinate of the center
+     * @param radius radius of the obstacle plus the clearance the robot needs from it
+     */
+    public void occupyCircle(double x, double y, double radius) {
+        for (int row = row(y - radius); row <= row(y + radius); row++) {
+            for (int column = column(x - radius); column <= column(x + radius); column++) {
+                if (Math.hypot(centerX(column) - x, centerY(row) - y) <= radius) {
+                    occupy(column, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Occupies the cells whose centers are inside a polygon or within a distance of its outline,
+     * for obstacles that are not circular, such as the rim of a crater
+     *
+     * @param xs        x-coordinates of the corners of the polygon, in order around it
+     * @param ys        y-coordinates of the corners, the same number as xs
+     * @param clearance how far the center of the robot has to stay from the outline
+     */
+    public void occupyPolygon(double[] xs, double[] ys, double clearance) {
+        if (xs.length != ys.length || xs.length < 3) {
+            throw new IllegalArgumentException("Polygon needs at least 3 corners, as many x as y");
+        }
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        for (int row = row(minY - clearance); row <= row(maxY + clearance); row++) {
+            for (int column = column(minX - clearance); column <= column(maxX + clearance); column++) {
+                double x = centerX(column);
+                double y = centerY(row);
+                if (isInside(xs, ys, x, y) || distToOutline(xs, ys, x, y) <= clearance) {
+                    occupy(column, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * Even-odd test of whether a point is inside a polygon
+     */
+    private static boolean isInside(double[] xs, double[] ys, double x, double y) {
+        boolean inside = false;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if ((ys[i] > y) != (ys[j] > y) && x < xs[j] + (y - ys[j]) * (xs[i] - xs[j]) / (ys[i] - ys[j])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return distance from a point to the nearest side of a polygon
+     */
+    private static double distToOutline(double[] xs, double[] ys, double x, double y) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            double dx = xs[i] - xs[j];
+            double dy = ys[i] - ys[j];
+            double lengthSq = dx * dx + dy * dy;
+            double t = lengthSq == 0 ? 0 : ((x - xs[j]) * dx + (y - ys[j]) * dy) / lengthSq;
+            t = Math.min(1, Math.max(0, t));
+            min = Math.min(min, Math.hypot(xs[j] + t * dx - x, ys[j] + t * dy - y));
+        }
+        return min;
+    }
+}
@@ -1,5 +1,14 @@
 package com.cwrubotix.glennifer.automodule;
 
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
 /**
  * 
  * @author Robbie Dozier
@@ -9,24 +18,92 @@ package com.cwrubotix.glennifer.automodule;
  * </p>
  */
 public class PathFinder {
-    private ModifiedAStar pathFindingAlgorithm;
+    /**
+     * The path finding algorithms a PathFinder can plan with
+     */
+    public enum Planner {
+        /**Visibility graph of nodes placed around each obstacle, see ModifiedAStar*/
+        VISIBILITY_GRAPH,
+        /**Occupancy grid of the whole arena, see JumpPointSearch*/
+        OCCUPANCY_GRID;
+
+        /**
+         * @return a new instance of the algorithm
+         */
+        public PathFindingAlgorithm create() {
+            switch (this) {
+                case OCCUPANCY_GRID:
+                    return new JumpPointSearch();
+                default:
+                    return new ModifiedAStar();
+            }
+        }
+
+        /**
+         * @return whether the algorithm given is the one this creates
+         */
+        public boolean isInstance(PathFindingAlgorithm algorithm) {
+            switch (this) {
+                case OCCUPANCY_GRID:
+                    return algorithm instanceof JumpPointSearch;
+                default:
+                    return algorithm instanceof ModifiedAStar;
+            }
+        }
+    }
+
+    /**Time registerObstacle waits for the alternatives unless set*/
+    public static final long DEFAULT_TIME_BUDGET_MS = 20;
+    /**Spacing of the alternative destinations along the digging line*/
+    private static final double DEST_SPACING = 0.5;
+    /**Score of a path per radian the robot turns, in meters of path*/
+    private static final double TURN_WEIGHT = 0.3;
+    /**Distance from the edge of the nearest obstacle below which a path scores worse*/
+    private static final double DESIRED_CLEARANCE = 0.5;
+    /**Score of a path per meter it comes closer than DESIRED_CLEARANCE*/
+    private static final double CLEARANCE_WEIGHT = 2.0;
+    /**Score of a path per meter its destination is away from the target along the digging line*/
+    private static final double DEST_WEIGHT = 2.0;
+
+    private PathFindingAlgorithm pathFindingAlgorithm;
     private Path path;
     private Position currentPos;
     private Position startPos;
     private Position targetPos;
+    /**Every destination and algorithm being planned for, the current one first*/
+    private final ArrayList<Candidate> candidates = new ArrayList<>();
+    /**Obstacles registered so far, for scoring clearance*/
+    private final ArrayList<Obstacle> obstacles = new ArrayList<>();
+    private long timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_BUDGET_MS);
     
     public PathFinder(Position startPos, Position targetPos){
 	this(new ModifiedAStar(), startPos, targetPos);
     }
 
-    public PathFinder(ModifiedAStar pathFindingAlgorithm, Position startPos, Position targetPos) throws PathFindingAlgorithm.AlgorithmFailureException {
+    public PathFinder(Planner planner, Position startPos, Position targetPos){
+	this(planner.create(), startPos, targetPos);
+    }
+
+    /**
+     * Plans with the algorithm given toward the target. Alternatives, every Planner toward points
+     * along the digging line (the line across the arena through the target), are planned for in
+     * the background and kept up to date with each obstacle.
+     */
+    public PathFinder(PathFindingAlgorithm pathFindingAlgorithm, Position startPos, Position targetPos) throws PathFindingAlgorithm.AlgorithmFailureException {
         this.pathFindingAlgorithm = pathFindingAlgorithm;
         this.startPos = startPos;
         this.targetPos = targetPos;
-        path = pathFindingAlgorithm.computePath(startPos, targetPos);
         this.currentPos = startPos;
+        Candidate primary = new Candidate(pathFindingAlgorithm, targetPos);
+        candidates.add(primary);
+        path = await(primary.submit(algorithm -> algorithm.computePath(startPos, targetPos)));
+        addAlternatives(startPos);
     }
 
+    /**
+     * @return the algorithm planning toward the current target. It may be planning in the
+     * background, so use it directly only through this PathFinder's methods.
+     */
     public PathFindingAlgorithm getAlgorithm() {
         return pathFindingAlgorithm;
     }
@@ -51,46 +128,215 @@ public class PathFinder {
         return targetPos;
     }
 
+    /**
+     * Sets how long registerObstacle waits for the alternatives to the current path. It always
+     * waits for the current path however long it takes.
+     *
+     * @param millis the time budget in milliseconds
+     */
+    public void setTimeBudget(long millis) {
+        timeBudgetNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
     public void runAlgorithm() {
-        path = pathFindingAlgorithm.computePath();
+        path = await(candidates.get(0).submit(PathFindingAlgorithm::computePath));
     }
     
+    /**
+     * Plans from start to end. If end is a new target, the alternatives are planned for again
+     * along its digging line, around every obstacle registered so far.
+     */
     public void recalculatePath(Position start, Position end){
-	this.path = pathFindingAlgorithm.computePath(start, end);
+        if (end.equals(targetPos)) {
+            this.path = await(candidates.get(0).submit(algorithm -> algorithm.computePath(start, end)));
+            return;
+        }
+        // The current algorithm already knows the obstacles, it only needs the new end
+        Candidate primary = new Candidate(pathFindingAlgorithm, end);
+        candidates.clear();
+        candidates.add(primary);
+        targetPos = end;
+        this.path = await(primary.submit(algorithm -> algorithm.computePath(start, end)));
+        addAlternatives(start);
+    }
+
+    /**
+     * Starts planning for every Planner toward points along the digging line through the target,
+     * but the current algorithm toward the target itself
+     */
+    private void addAlternatives(Position start) {
+        ArrayList<Obstacle> known = new ArrayList<>(obstacles);
+        for (Position dest : digDestinations(targetPos)) {
+            for (Planner planner : Planner.values()) {
+                if (dest == targetPos && planner.isInstance(pathFindingAlgorithm))
+                    continue;
+                Candidate candidate = new Candidate(planner.create(), dest);
+                candidate.latest = candidate.submit(algorithm -> planAround(algorithm, start, dest, known));
+                candidates.add(candidate);
+            }
+        }
     }
 
+    /**
+     * Plans with a new algorithm from start to dest, then around each obstacle in turn
+     *
+     * @throws PathFindingAlgorithm.AlgorithmFailureException if there is no path around them all
+     */
+    private static Path planAround(PathFindingAlgorithm algorithm, Position start, Position dest, ArrayList<Obstacle> known) {
+        Path result = algorithm.computePath(start, dest);
+        for (int i = 0; i < known.size(); i++) {
+            try {
+                result = algorithm.computePath(start, known.get(i));
+            } catch (PathFindingAlgorithm.AlgorithmFailureException e) {
+                // The obstacle is added all the same, and so must the rest be
+                if (i == known.size() - 1)
+                    throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replans every candidate around a new obstacle at once and keeps the best path, scored by
+     * its length, how much it turns, how close it comes to obstacles and how far its destination
+     * is from the target. Alternatives not done within the time budget are left out this time.
+     *
+     * @throws PathFindingAlgorithm.AlgorithmFailureException if no candidate has a path
+     * @throws DestinationModified if the best path ends somewhere else along the digging line,
+     * which is the target from now on
+     */
     public void registerObstacle(Obstacle obstacle) throws PathFindingAlgorithm.AlgorithmFailureException, DestinationModified{
-        Path path = pathFindingAlgorithm.computePath(currentPos, obstacle);
-        Position newDest = isDestReasonable(path);
-        if(newDest == null){
-            this.path = path;
+        obstacles.add(obstacle);
+        Position current = currentPos;
+        for (Candidate candidate : candidates) {
+            candidate.latest = candidate.submit(algorithm -> algorithm.computePath(current, obstacle));
+        }
+
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        Candidate best = null;
+        Path bestPath = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (Candidate candidate : candidates) {
+            Path candidatePath;
+            try {
+                if (candidate == candidates.get(0)) {
+                    candidatePath = candidate.latest.get();
+                } else {
+                    candidatePath = candidate.latest.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (ExecutionException | TimeoutException e) { // No path, or not in time
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            double score = score(candidatePath, candidate.dest);
+            if (score < bestScore) {
+                best = candidate;
+                bestPath = candidatePath;
+                bestScore = score;
+            }
         }
-        else{
-            pathFindingAlgorithm.setEnd(newDest);
-            targetPos = newDest;
-            this.path = pathFindingAlgorithm.computePath();
-            throw new DestinationModified(newDest.getX(), newDest.getY());
+        if (best == null)
+            throw new PathFindingAlgorithm.AlgorithmFailureException();
+
+        this.path = bestPath;
+        if (best != candidates.get(0)) {
+            candidates.remove(best);
+            candidates.add(0, best);
+            pathFindingAlgorithm = best.algorithm;
+            if (best.dest != targetPos) {
+                targetPos = best.dest;
+                throw new DestinationModified(targetPos.getX(), targetPos.getY());
+            }
         }
     }
 
-    private Position isDestReasonable(Path path){
-	double minX = 0.0F, maxX = 0.0F;
-	
-	for(Position pos : path){
-	    if(pos.getX() < minX)
-		minX = pos.getX();
-	    if(pos.getX() > maxX)
-		maxX = pos.getX();
-	}
-	
-	if(Math.abs(maxX - getTargetPos().getX()) > Position.ARENA_WIDTH() * 1 / 3){
-	    return new Position(maxX, getTargetPos().getY());
-	}
-	else if(Math.abs(minX - getTargetPos().getX()) > Position.ARENA_WIDTH() * 1 / 2){
-	    return new Position(minX, getTargetPos().getY());
-	}
-	
-	return null;
+    /**
+     * @return the target and points along the digging line through it, DEST_SPACING apart and
+     * clear of the walls
+     */
+    private static ArrayList<Position> digDestinations(Position target) {
+        ArrayList<Position> dests = new ArrayList<>();
+        dests.add(target);
+        double limit = Position.ARENA_WIDTH() / 2 - Position.WALL_CLEARANCE();
+        for (double x = target.getX() - DEST_SPACING; x >= -limit; x -= DEST_SPACING)
+            dests.add(new Position(x, target.getY()));
+        for (double x = target.getX() + DEST_SPACING; x <= limit; x += DEST_SPACING)
+            dests.add(new Position(x, target.getY()));
+        return dests;
+    }
+
+    /**
+     * @return the cost of following a path to a destination, lower is better
+     */
+    private double score(Path path, Position dest) {
+        double length = 0;
+        double turning = 0;
+        double clearance = Double.POSITIVE_INFINITY;
+        Position previous = null;
+        double heading = path.length() > 0 ? path.getPoint(0).getHeading() : 0;
+        for (Position pos : path) {
+            if (previous != null && previous.getDistTo(pos) > 0) {
+                length += previous.getDistTo(pos);
+                double newHeading = previous.getHeadingTo(pos);
+                double turn = Math.abs(newHeading - heading) % (2 * Math.PI);
+                turning += Math.min(turn, 2 * Math.PI - turn);
+                heading = newHeading;
+                for (Obstacle obs : obstacles)
+                    clearance = Math.min(clearance, distToSegment(obs, previous, pos) - obs.getRadius());
+            }
+            previous = pos;
+        }
+        return length
+                + TURN_WEIGHT * turning
+                + CLEARANCE_WEIGHT * Math.max(0, DESIRED_CLEARANCE - clearance)
+                + DEST_WEIGHT * Math.abs(dest.getX() - targetPos.getX());
+    }
+
+    private static double distToSegment(Coordinate point, Position a, Position b) {
+        double dx = b.getX() - a.getX();
+        double dy = b.getY() - a.getY();
+        double t = ((point.getX() - a.getX()) * dx + (point.getY() - a.getY()) * dy) / (dx * dx + dy * dy);
+        t = Math.min(1, Math.max(0, t));
+        return Math.hypot(a.getX() + t * dx - point.getX(), a.getY() + t * dy - point.getY());
+    }
+
+    /**
+     * Waits for a path, passing on the exception if the algorithm threw one
+     */
+    private static Path await(CompletableFuture<Path> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * A destination and the algorithm planning toward it. Its algorithm is only used through
+     * submit, which runs one task after another on the fork-join pool, never two at once.
+     */
+    private static class Candidate {
+        final PathFindingAlgorithm algorithm;
+        final Position dest;
+        /**Completes when the last task submitted is done, however it ended*/
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        /**Result of the last replan around an obstacle or of the first path*/
+        CompletableFuture<Path> latest;
+
+        Candidate(PathFindingAlgorithm algorithm, Position dest) {
+            this.algorithm = algorithm;
+            this.dest = dest;
+        }
+
+        CompletableFuture<Path> submit(Function<PathFindingAlgorithm, Path> task) {
+            CompletableFuture<Path> result = tail.thenApplyAsync(v -> task.apply(algorithm), ForkJoinPool.commonPool());
+            tail = result.handle((p, e) -> null);
+            return result;
+        }
     }
     
     public class DestinationModified extends Exception{
@@ -38,6 +38,13 @@ public interface PathFindingAlgorithm {
      */
     public abstract Path computePath(Position currentPos, Obstacle newObstacle) throws AlgorithmFailureException;
 
+    /**
+     * Call this method to change the end position. The next call to computePath() plans toward it.
+     *
+     * @param endPosition the new end position
+     */
+    public abstract void setEnd(Position endPosition);
+
     public class AlgorithmFailureException extends RuntimeException {
     }
 }
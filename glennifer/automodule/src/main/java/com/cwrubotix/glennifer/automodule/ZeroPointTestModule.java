@@ -175,9 +175,10 @@ public class ZeroPointTestModule extends Module{
 									  .build();
 	this.channel.basicPublish(exchangeName, "state.subscribe", null, msg.toByteArray());
 	
-	String queueName = channel.queueDeclare().getQueue();
-	channel.queueBind(queueName, exchangeName, "zeroPointTest");
-	this.channel.basicConsume(queueName, true, new StateUpdate(channel));
+	// Named after the reply key, so StateModule can see if we fall behind
+	channel.queueDeclare("zeroPointTest", false, false, false, null);
+	channel.queueBind("zeroPointTest", exchangeName, "zeroPointTest");
+	this.channel.basicConsume("zeroPointTest", true, new StateUpdate(channel));
 	
 	System.out.println("Waiting on Localization message");
     }
@@ -0,0 +1,159 @@
+package com.cwrubotix.glennifer.automodule;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class JumpPointSearchTest {
+
+    private static final double RESOLUTION = 0.1;
+
+    public JumpPointSearchTest() { }
+
+    /**
+     * Length of the shortest 8 connected path between two cells that does not cut a corner,
+     * by Dijkstra's algorithm over every cell
+     *
+     * @return the length in meters, infinite if there is none
+     */
+    private static double dijkstra(OccupancyGrid grid, int startColumn, int startRow, int goalColumn, int goalRow) {
+        int columns = grid.getColumns();
+        double[] dist = new double[columns * grid.getRows()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        dist[startRow * columns + startColumn] = 0;
+        queue.add(new double[] {0, startColumn, startRow});
+        while (!queue.isEmpty()) {
+            double[] entry = queue.poll();
+            int x = (int) entry[1];
+            int y = (int) entry[2];
+            if (entry[0] > dist[y * columns + x])
+                continue;
+            if (x == goalColumn && y == goalRow)
+                return entry[0];
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    if ((dx == 0 && dy == 0) || !grid.isFree(x + dx, y + dy))
+                        continue;
+                    if (dx != 0 && dy != 0 && (!grid.isFree(x + dx, y) || !grid.isFree(x, y + dy)))
+                        continue;
+                    double d = entry[0] + (dx != 0 && dy != 0 ? Math.sqrt(2) : 1) * grid.getResolution();
+                    int next = (y + dy) * columns + x + dx;
+                    if (d < dist[next]) {
+                        dist[next] = d;
+                        queue.add(new double[] {d, x + dx, y + dy});
+                    }
+                }
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Asserts every point along each segment of a path, but the first and last, is in a free cell
+     */
+    private static void assertClear(OccupancyGrid grid, Path path) {
+        Position[] points = path.getPath().toArray(new Position[0]);
+        for (int i = 2; i < points.length - 1; i++) {
+            Position a = points[i - 1];
+            Position b = points[i];
+            int samples = (int) Math.ceil(a.getDistTo(b) / (grid.getResolution() / 8));
+            for (int k = 1; k < samples; k++) {
+                double x = a.getX() + (b.getX() - a.getX()) * k / samples;
+                double y = a.getY() + (b.getY() - a.getY()) * k / samples;
+                assertTrue("segment " + a + " to " + b + " crosses an occupied cell at " + x + ", " + y,
+                        grid.isFree(grid.column(x), grid.row(y)));
+            }
+        }
+    }
+
+    private static Position randomFreeCenter(OccupancyGrid grid, Random random) {
+        while (true) {
+            int column = random.nextInt(grid.getColumns());
+            int row = random.nextInt(grid.getRows());
+            if (grid.isFree(column, row))
+                return new Position(grid.centerX(column), grid.centerY(row));
+        }
+    }
+
+    /**
+     * Test of computePath(startPosition, endPosition), against Dijkstra's algorithm over the same grid
+     */
+    @Test
+    public void testShortestOnRandomLayouts() {
+        Random random = new Random(11);
+        for (int trial = 0; trial < 150; trial++) {
+            JumpPointSearch instance = new JumpPointSearch(RESOLUTION);
+            OccupancyGrid grid = instance.getGrid();
+            int obstacles = 3 + random.nextInt(10);
+            for (int i = 0; i < obstacles; i++) {
+                instance.addObstacle(new Obstacle(random.nextDouble() * 3.4 - 1.7, random.nextDouble() * 7, 0.15));
+            }
+            Position start = randomFreeCenter(grid, random);
+            Position end = randomFreeCenter(grid, random);
+            double expected = dijkstra(grid, grid.column(start.getX()), grid.row(start.getY()),
+                    grid.column(end.getX()), grid.row(end.getY()));
+            Path path;
+            try {
+                path = instance.computePath(start, end);
+            } catch (PathFindingAlgorithm.AlgorithmFailureException e) {
+                assertEquals(Double.POSITIVE_INFINITY, expected, 0);
+                continue;
+            }
+            assertEquals(expected, instance.getGridDistance(), 1e-9);
+            assertEquals(start, path.getPoint(0));
+            assertEquals(end, path.getPoint(path.length() - 1));
+            assertClear(grid, path);
+        }
+    }
+
+    /**
+     * Test of computePath(currentPos, newObstacle) when the obstacle leaves no way through
+     */
+    @Test(expected = PathFindingAlgorithm.AlgorithmFailureException.class)
+    public void testNoPath() {
+        JumpPointSearch instance = new JumpPointSearch(RESOLUTION);
+        instance.setEnd(new Position(0, 6));
+        // A wall of obstacles across the arena
+        for (double x = -1.8; x <= 1.8; x += 0.2) {
+            instance.addObstacle(new Obstacle(x, 3, 0.15));
+        }
+        instance.computePath(new Position(0, 1), new Obstacle(0, 3, 0.15));
+    }
+
+    /**
+     * Test of computePath when the start position is in an occupied cell: the path leaves it
+     * for the nearest free cell first
+     */
+    @Test
+    public void testStartInOccupiedCell() {
+        Random random = new Random(3);
+        for (int trial = 0; trial < 50; trial++) {
+            JumpPointSearch instance = new JumpPointSearch(RESOLUTION);
+            OccupancyGrid grid = instance.getGrid();
+            Obstacle obstacle = new Obstacle(random.nextDouble() * 1.6 - 0.8, random.nextDouble() * 4 + 1.5, 0.15);
+            instance.addObstacle(obstacle);
+            // Somewhere inside the clearance around the obstacle
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double r = random.nextDouble() * 0.5;
+            Position start = new Position(obstacle.getX() + r * Math.cos(angle), obstacle.getY() + r * Math.sin(angle));
+            if (grid.isFree(grid.column(start.getX()), grid.row(start.getY())))
+                continue;
+            Path path = instance.computePath(start, new Position(0, 6.5));
+            assertEquals(start, path.getPoint(0));
+
+            double nearest = Double.POSITIVE_INFINITY;
+            for (int row = 0; row < grid.getRows(); row++) {
+                for (int column = 0; column < grid.getColumns(); column++) {
+                    if (grid.isFree(column, row))
+                        nearest = Math.min(nearest, Math.hypot(grid.centerX(column) - start.getX(), grid.centerY(row) - start.getY()));
+                }
+            }
+            Position first = path.getPoint(1);
+            assertTrue(grid.isFree(grid.column(first.getX()), grid.row(first.getY())));
+            assertEquals(nearest, start.getDistTo(first), 1e-9);
+        }
+    }
+}
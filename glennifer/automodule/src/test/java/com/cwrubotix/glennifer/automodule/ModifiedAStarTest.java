@@ -0,0 +1,134 @@
+package com.cwrubotix.glennifer.automodule;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ModifiedAStarTest {
+
+    /**Clearance the robot keeps from the center of an obstacle, as in ModifiedAStar*/
+    private static final double REACH = 0.80F / 2 + 0.15;
+
+    private static final Position END = new Position(0.9, 6.0);
+
+    public ModifiedAStarTest() { }
+
+    private static double length(Path path) {
+        double length = 0;
+        Position[] points = path.getPath().toArray(new Position[0]);
+        for (int i = 1; i < points.length; i++) {
+            length += points[i - 1].getDistTo(points[i]);
+        }
+        return length;
+    }
+
+    private static double distToSegment(Position a, Position b, Obstacle obs) {
+        double dx = b.getX() - a.getX();
+        double dy = b.getY() - a.getY();
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((obs.getX() - a.getX()) * dx + (obs.getY() - a.getY()) * dy) / lengthSq;
+        t = Math.min(1, Math.max(0, t));
+        return Math.hypot(a.getX() + t * dx - obs.getX(), a.getY() + t * dy - obs.getY());
+    }
+
+    /**
+     * Asserts every segment of a path keeps clear of the obstacles, but for leaving a start
+     * position that is already too close to one
+     */
+    private static void assertClear(Path path, Obstacle[] obstacles, int count) {
+        Position[] points = path.getPath().toArray(new Position[0]);
+        for (int i = 1; i < points.length; i++) {
+            for (int j = 0; j < count; j++) {
+                if (i == 1 && points[0].getDistTo(obstacles[j]) < REACH)
+                    continue;
+                assertTrue("segment " + points[i - 1] + " to " + points[i] + " too close to " + obstacles[j],
+                        distToSegment(points[i - 1], points[i], obstacles[j]) >= REACH - 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Test of computePath(currentPos, newObstacle), replanning incrementally against searching
+     * the same graph again from scratch.
+     */
+    @Test
+    public void testIncrementalReplanMatchesFreshSearch() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 200; trial++) {
+            ModifiedAStar incremental = new ModifiedAStar();
+            ModifiedAStar fresh = new ModifiedAStar();
+            incremental.setEnd(END);
+            fresh.setEnd(END);
+            Obstacle[] obstacles = new Obstacle[8];
+            Position current = new Position(-0.9, 0.75);
+            for (int i = 0; i < obstacles.length; i++) {
+                obstacles[i] = new Obstacle(random.nextDouble() * 2.4 - 1.2, random.nextDouble() * 4 + 1.5, 0.15);
+                Path path;
+                try {
+                    path = incremental.computePath(current, obstacles[i]);
+                } catch (PathFindingAlgorithm.AlgorithmFailureException e) {
+                    try {
+                        fresh.computePath(current, obstacles[i]);
+                        fail("incremental replan found no path where a fresh search did");
+                    } catch (PathFindingAlgorithm.AlgorithmFailureException expected) {
+                    }
+                    break;
+                }
+                Path freshPath = fresh.computePath(current, obstacles[i]);
+                assertEquals(length(freshPath), length(path), 1e-6);
+                // A* over the same graph ends the incremental search, so the next replan is from scratch
+                Path aStarPath = fresh.computePath();
+                assertEquals(END, aStarPath.getPoint(aStarPath.length() - 1));
+                assertEquals(current, path.getPoint(0));
+                assertEquals(END, path.getPoint(path.length() - 1));
+                assertClear(path, obstacles, i + 1);
+                // Moves part of the way along the path before finding the next obstacle
+                Position next = path.getPoint(1);
+                current = new Position(current.getX() + 0.3 * (next.getX() - current.getX()),
+                        current.getY() + 0.3 * (next.getY() - current.getY()));
+            }
+        }
+    }
+
+    /**
+     * Test of computePath(currentPos, newObstacle) when a new obstacle covers a node on the path
+     */
+    @Test
+    public void testObstacleCoveringNode() {
+        ModifiedAStar instance = new ModifiedAStar();
+        instance.setEnd(new Position(0.0, 6.0));
+        Obstacle[] obstacles = new Obstacle[2];
+        obstacles[0] = new Obstacle(0.0, 3.0, 0.15);
+        Position current = new Position(0.0, 1.0);
+        Path path = instance.computePath(current, obstacles[0]);
+        assertTrue(path.length() > 2);
+        // Right on the node the path goes around the first obstacle by
+        Position waypoint = path.getPoint(1);
+        obstacles[1] = new Obstacle(waypoint.getX(), waypoint.getY(), 0.15);
+        path = instance.computePath(current, obstacles[1]);
+        assertClear(path, obstacles, 2);
+        for (int i = 1; i < path.length(); i++) {
+            assertNotEquals(waypoint, path.getPoint(i));
+        }
+    }
+
+    /**
+     * Test of computePath(currentPos, newObstacle) starting too close to an obstacle
+     */
+    @Test
+    public void testStartTooCloseToObstacle() {
+        ModifiedAStar instance = new ModifiedAStar();
+        instance.setEnd(END);
+        Obstacle obstacle = new Obstacle(0.0, 3.0, 0.15);
+        Position current = new Position(0.0, 2.7);
+        Path path = instance.computePath(current, obstacle);
+        assertEquals(current, path.getPoint(0));
+        assertClear(path, new Obstacle[] {obstacle}, 1);
+        // Once the robot has moved on, the old start is not a way around the next obstacle
+        Position moved = new Position(-0.6, 2.3);
+        path = instance.computePath(moved, new Obstacle(0.5, 4.5, 0.15));
+        for (int i = 1; i < path.length(); i++) {
+            assertNotEquals(current, path.getPoint(i));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cwrubotix.glennifer.automodule;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class OccupancyGridTest {
+
+    public OccupancyGridTest() { }
+
+    private static boolean isFreeAt(OccupancyGrid grid, double x, double y) {
+        return grid.isFree(grid.column(x), grid.row(y));
+    }
+
+    @Test
+    public void testCellOfPosition() {
+        OccupancyGrid grid = new OccupancyGrid(0.1);
+        assertEquals(38, grid.getColumns());
+        assertEquals(74, grid.getRows());
+        int column = grid.column(0.03);
+        int row = grid.row(2.47);
+        assertTrue(Math.abs(grid.centerX(column) - 0.03) <= 0.05);
+        assertTrue(Math.abs(grid.centerY(row) - 2.47) <= 0.05);
+        // Past the walls, the nearest cell
+        assertEquals(0, grid.column(-5));
+        assertEquals(grid.getRows() - 1, grid.row(20));
+        assertFalse(grid.isFree(-1, 0));
+        assertFalse(grid.isFree(0, grid.getRows()));
+    }
+
+    @Test
+    public void testOccupyCircle() {
+        OccupancyGrid grid = new OccupancyGrid(0.05);
+        grid.occupyCircle(0, 3, 0.5);
+        assertFalse(isFreeAt(grid, 0, 3));
+        assertFalse(isFreeAt(grid, 0.3, 3.3));
+        assertTrue(isFreeAt(grid, 0.4, 3.4));
+        assertTrue(isFreeAt(grid, 0, 3.6));
+        grid.clear();
+        assertTrue(isFreeAt(grid, 0, 3));
+    }
+
+    /**
+     * Test of occupyPolygon method with a concave polygon, an L shape
+     */
+    @Test
+    public void testOccupyPolygon() {
+        OccupancyGrid grid = new OccupancyGrid(0.05);
+        double[] xs = {-1, 1, 1, 0, 0, -1};
+        double[] ys = {2, 2, 3, 3, 4, 4};
+        grid.occupyPolygon(xs, ys, 0.2);
+        // Inside each arm
+        assertFalse(isFreeAt(grid, 0.5, 2.5));
+        assertFalse(isFreeAt(grid, -0.5, 3.5));
+        // Within the clearance of the outline, outside and in the notch
+        assertFalse(isFreeAt(grid, 0, 1.87));
+        assertFalse(isFreeAt(grid, 1.12, 2.5));
+        assertFalse(isFreeAt(grid, 0.12, 3.5));
+        // Past the clearance, outside and in the notch
+        assertTrue(isFreeAt(grid, 0, 1.72));
+        assertTrue(isFreeAt(grid, 1.27, 2.5));
+        assertTrue(isFreeAt(grid, 0.5, 3.5));
+        assertTrue(isFreeAt(grid, 0.27, 3.27));
+        // Past the clearance of the corners, diagonally
+        assertTrue(isFreeAt(grid, 1.17, 1.83));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPolygonNeedsThreeCorners() {
+        new OccupancyGrid(0.05).occupyPolygon(new double[] {0, 1}, new double[] {2, 2}, 0.2);
+    }
+
+    @Test
+    public void testOccupyWalls() {
+        OccupancyGrid grid = new OccupancyGrid(0.05);
+        grid.occupyWalls(0.4);
+        assertFalse(isFreeAt(grid, -1.6, 3));
+        assertFalse(isFreeAt(grid, 0, 0.2));
+        assertFalse(isFreeAt(grid, 0, 7.2));
+        assertTrue(isFreeAt(grid, -1.4, 3));
+        assertTrue(isFreeAt(grid, 0, 0.5));
+    }
+}
@@ -0,0 +1,94 @@
+package com.cwrubotix.glennifer.automodule;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PathFinderTest {
+
+    public PathFinderTest() { }
+
+    private static PathFinder pathFinder(Position start, Position target) {
+        PathFinder instance = new PathFinder(start, target);
+        // Every alternative is scored, however slow the machine
+        instance.setTimeBudget(10000);
+        return instance;
+    }
+
+    private static Position end(Path path) {
+        return path.getPoint(path.length() - 1);
+    }
+
+    /**
+     * Test of registerObstacle method with an obstacle out of the way
+     */
+    @Test
+    public void testObstacleOutOfTheWay() throws Exception {
+        Position target = new Position(0, 6);
+        PathFinder instance = pathFinder(new Position(0, 1), target);
+        instance.registerObstacle(new Obstacle(1.2, 3.5, 0.15));
+        assertSame(target, instance.getTargetPos());
+        assertEquals(target, end(instance.getPath()));
+    }
+
+    /**
+     * Test of registerObstacle method with an obstacle in the way: going around it scores better
+     * than ending somewhere else along the digging line
+     */
+    @Test
+    public void testDetourKeepsTarget() throws Exception {
+        Position target = new Position(0, 6);
+        PathFinder instance = pathFinder(new Position(0, 1), target);
+        instance.registerObstacle(new Obstacle(0, 3.5, 0.15));
+        assertSame(target, instance.getTargetPos());
+        assertEquals(target, end(instance.getPath()));
+        assertTrue(instance.getPath().length() > 2);
+    }
+
+    /**
+     * Test of registerObstacle method with obstacles all around the target: a destination along
+     * the digging line takes its place
+     */
+    @Test
+    public void testEnclosedTargetMovesDestination() {
+        Position target = new Position(-0.5, 4);
+        PathFinder instance = pathFinder(new Position(0, 1), target);
+        PathFinder.DestinationModified modified = null;
+        for (int i = 0; i < 8; i++) {
+            double angle = Math.PI * i / 4;
+            try {
+                instance.registerObstacle(new Obstacle(target.getX() + 0.6 * Math.cos(angle), target.getY() + 0.6 * Math.sin(angle), 0.15));
+            } catch (PathFinder.DestinationModified e) {
+                modified = e;
+            }
+        }
+        assertNotNull(modified);
+        // Along the digging line, a whole number of spacings from the target
+        assertEquals(target.getY(), modified.getY(), 1e-9);
+        double spacings = (modified.getX() - target.getX()) / 0.5;
+        assertEquals(Math.rint(spacings), spacings, 1e-9);
+        assertNotEquals(0, Math.rint(spacings), 0);
+        // And the path goes there
+        assertEquals(modified.getX(), instance.getTargetPos().getX(), 1e-9);
+        assertEquals(modified.getY(), instance.getTargetPos().getY(), 1e-9);
+        assertEquals(instance.getTargetPos(), end(instance.getPath()));
+    }
+
+    /**
+     * Test of registerObstacle method after recalculatePath to a new target: the destinations
+     * along the old target's digging line are no longer alternatives
+     */
+    @Test
+    public void testRecalculatePathToNewTarget() throws Exception {
+        Position reached = new Position(0, 3);
+        PathFinder instance = pathFinder(new Position(0, 1), reached);
+        instance.registerObstacle(new Obstacle(-1.2, 2, 0.15));
+        Position target = new Position(0.5, 6);
+        instance.setCurrentPos(reached);
+        instance.recalculatePath(reached, target);
+        assertSame(target, instance.getTargetPos());
+        assertEquals(target, end(instance.getPath()));
+        instance.registerObstacle(new Obstacle(1.2, 4.5, 0.15));
+        assertSame(target, instance.getTargetPos());
+        assertEquals(target, end(instance.getPath()));
+    }
+}
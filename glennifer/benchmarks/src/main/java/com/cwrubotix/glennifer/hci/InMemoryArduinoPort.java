@@ -0,0 +1,99 @@
+package com.cwrubotix.glennifer.hci;
+
+import jssc.SerialPort;
+import jssc.SerialPortTimeoutException;
+
+/**
+ * Stand-in for the arduino that answers requests from memory instead of over a serial port.
+ * Read sensors requests are answered with a value for each requested sensor that changes on every
+ * request, and set outputs requests are echoed back, the same as the real firmware.
+ */
+class InMemoryArduinoPort extends SerialPort {
+	// Bytes written back by the "arduino" and not yet read
+	private final byte[] rx = new byte[4096];
+	private int rxHead = 0;
+	private int rxSize = 0;
+	private int requestCount = 0;
+
+	InMemoryArduinoPort() {
+		super("in-memory");
+	}
+
+	@Override
+	public synchronized boolean writeBytes(byte[] packet) {
+		byte command = packet[0];
+		int len = 0xFF & packet[1];
+		if (command == HardwareControlInterface.COMMAND_READ_SENSORS) {
+			requestCount++;
+			put(command);
+			put((byte)(len * 3));
+			for (int i = 0; i < len; i++) {
+				// Big endian value that differs from the last request's
+				int value = (requestCount & 0x3FF) + i;
+				put(packet[SerialPacket.HEADER_SIZE + i]);
+				put((byte)(value >> 8));
+				put((byte)value);
+			}
+		} else {
+			put(command);
+			put((byte)len);
+			for (int i = 0; i < len; i++) {
+				put(packet[SerialPacket.HEADER_SIZE + i]);
+			}
+		}
+		notifyAll();
+		return true;
+	}
+
+	@Override
+	public synchronized byte[] readBytes(int byteCount, int timeout) throws SerialPortTimeoutException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (rxSize < byteCount) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new SerialPortTimeoutException(getPortName(), "readBytes", timeout);
+			}
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				throw new SerialPortTimeoutException(getPortName(), "readBytes", timeout);
+			}
+		}
+		byte[] out = new byte[byteCount];
+		for (int i = 0; i < byteCount; i++) {
+			out[i] = rx[rxHead];
+			rxHead = (rxHead + 1) % rx.length;
+		}
+		rxSize -= byteCount;
+		return out;
+	}
+
+	@Override
+	public String getPortName() {
+		return "in-memory";
+	}
+
+	/**
+	 * Builds the reply the arduino would send for a read sensors request, without the header
+	 * @param ids The requested sensor IDs
+	 * @param base Value of the first sensor, each following sensor reads one more
+	 */
+	static byte[] readSensorsReply(int[] ids, int base) {
+		byte[] body = new byte[ids.length * 3];
+		for (int i = 0; i < ids.length; i++) {
+			int value = base + i;
+			body[i * 3] = (byte)ids[i];
+			body[i * 3 + 1] = (byte)(value >> 8);
+			body[i * 3 + 2] = (byte)value;
+		}
+		return body;
+	}
+
+	private void put(byte b) {
+		if (rxSize == rx.length) {
+			throw new IllegalStateException("In-memory arduino receive buffer overflow");
+		}
+		rx[(rxHead + rxSize) % rx.length] = b;
+		rxSize++;
+	}
+}
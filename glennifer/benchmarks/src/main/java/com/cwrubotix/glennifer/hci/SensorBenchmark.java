@@ -0,0 +1,74 @@
+package com.cwrubotix.glennifer.hci;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording samples into a sensor's history and querying it
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorBenchmark {
+	// Samples 5 ms apart, the control loop's default period
+	private static final long PERIOD_MS = 5;
+
+	private Sensor sensor;
+	private Sensor filteredSensor;
+	private long now;
+	private long start;
+	private long queryOffset = 0;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		sensor = new Sensor(new SensorConfig("Pot", 10));
+		filteredSensor = new Sensor(new SensorConfig("Filtered Pot", 11));
+		filteredSensor.setLowPassFreq(10);
+		start = 1000000;
+		now = start;
+		// Fill the history so queries search the whole buffer
+		for (int i = 0; i < SensorConfig.DEFAULT_HISTORY_SIZE; i++) {
+			now += PERIOD_MS;
+			sensor.update(Math.sin(i * 0.01) * 1000, now);
+			filteredSensor.update(Math.sin(i * 0.01) * 1000, now);
+		}
+		start = now - (SensorConfig.DEFAULT_HISTORY_SIZE - 1) * PERIOD_MS;
+	}
+
+	@Benchmark
+	public boolean update() {
+		now += PERIOD_MS;
+		return sensor.update(now & 0x3FF, now);
+	}
+
+	@Benchmark
+	public boolean updateLowPass() {
+		now += PERIOD_MS;
+		return filteredSensor.update(now & 0x3FF, now);
+	}
+
+	/**
+	 * Interpolates at a time inside the stored history
+	 */
+	@Benchmark
+	public double getDataAt() {
+		queryOffset = (queryOffset + 7) % ((SensorConfig.DEFAULT_HISTORY_SIZE - 1) * PERIOD_MS);
+		return sensor.getDataAt(start + queryOffset);
+	}
+
+	@Benchmark
+	public double getDerivativeAt() {
+		queryOffset = (queryOffset + 7) % ((SensorConfig.DEFAULT_HISTORY_SIZE - 1) * PERIOD_MS);
+		return sensor.getDerivativeAt(start + queryOffset);
+	}
+}
@@ -0,0 +1,67 @@
+package com.cwrubotix.glennifer.hci;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the protobuf messages ModuleMain publishes for sensor updates, through the same
+ * methods generateSensorUpdateMessage and flushSensorBatch use
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SensorMessageBenchmark {
+	private SensorRoute[] routes;
+	private SensorData[] cycle;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// The same kinds of routes as config/Sensors.yml
+		SensorRoute[] configured = {
+				new SensorRoute(1, "Front Left Wheel Encoder", "sensor.locomotion.front_left.wheel_rpm", SensorRoute.Kind.RPM, SensorRoute.Conversion.NONE, 0, 1),
+				new SensorRoute(3, "Front Right Wheel Encoder", "sensor.locomotion.front_right.wheel_rpm", SensorRoute.Kind.RPM, SensorRoute.Conversion.NONE, 0, 1),
+				new SensorRoute(10, "Left Arm Pot", "sensor.excavation.arm_pos", SensorRoute.Kind.POSITION, SensorRoute.Conversion.BC_ANGLE, 0, 1),
+				new SensorRoute(12, "Bucket Conveyor Translation Pot", "sensor.excavation.conveyor_translation_displacement", SensorRoute.Kind.DISPLACEMENT, SensorRoute.Conversion.LINEAR, 2944, 10.5),
+				new SensorRoute(33, "Bucket Conveyor Current", "sensor.excavation.conveyor_current", SensorRoute.Kind.CURRENT, SensorRoute.Conversion.NONE, 0, 1),
+				new SensorRoute(22, "Load Cell A", "sensor.deposition.load.left", SensorRoute.Kind.LOAD, SensorRoute.Conversion.NONE, 0, 1),
+				new SensorRoute(13, "Bucket Conveyor Retracted Limit", "sensor.excavation.conveyor_translation_limit_retracted", SensorRoute.Kind.LIMIT, SensorRoute.Conversion.NONE, 0, 1)
+		};
+		routes = new SensorRoute[256];
+		cycle = new SensorData[configured.length];
+		long t = System.currentTimeMillis();
+		for (int i = 0; i < configured.length; i++) {
+			routes[configured[i].id] = configured[i];
+			cycle[i] = new SensorData(configured[i].id, 3000 + i, t);
+		}
+	}
+
+	/**
+	 * Encodes one update
+	 */
+	@Benchmark
+	public byte[] encodeUpdate() {
+		return ModuleMain.encodeSensorUpdate(routes[cycle[0].id & 0xFF], cycle[0]).toByteArray();
+	}
+
+	/**
+	 * Encodes a whole cycle of updates into one sensor.batch message
+	 */
+	@Benchmark
+	public byte[] encodeBatch() {
+		for (SensorData sensorData : cycle) {
+			SensorRoute route = routes[sensorData.id & 0xFF];
+			ModuleMain.batchSensorUpdate(route.routingKey, ModuleMain.encodeSensorUpdate(route, sensorData));
+		}
+		return ModuleMain.takeSensorBatch();
+	}
+}
@@ -0,0 +1,102 @@
+package com.cwrubotix.glennifer.hci;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jssc.SerialPortException;
+import jssc.SerialPortTimeoutException;
+
+/**
+ * Encoding requests and decoding replies on the serial link, with and without the transport
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerialCodecBenchmark {
+	// The sensors the robot reads every cycle
+	private static final int[] SENSOR_IDS = {1, 3, 7, 5, 10, 11, 16, 17, 12, 13, 15, 14, 33, 22, 23, 21, 18, 19, 20};
+
+	private SerialPacket setOutputs;
+	private HardwareControlInterface hci;
+	// Two replies with different values, so every parse produces updates
+	private byte[][] replies;
+	private int replyIndex = 0;
+	private SerialTransport transport;
+	private byte[] readSensorsPacket;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// Eight actuators, 3 bytes each
+		byte[] body = new byte[24];
+		for (int i = 0; i < body.length; i += 3) {
+			body[i] = (byte)(i / 3);
+			body[i + 2] = 100;
+		}
+		setOutputs = new SerialPacket(HardwareControlInterface.COMMAND_SET_OUTPUTS, body);
+
+		InMemoryArduinoPort port = new InMemoryArduinoPort();
+		hci = new HardwareControlInterface(HardwareControlInterface.DEFAULT_CYCLE_RATE_HZ, port);
+		for (int id : SENSOR_IDS) {
+			SensorConfig config = new SensorConfig("Sensor " + id, id);
+			// Publish every change so the update queue sees the full load
+			config.maxSilenceMs = 0;
+			hci.addSensor(config);
+		}
+		replies = new byte[][] {
+				InMemoryArduinoPort.readSensorsReply(SENSOR_IDS, 100),
+				InMemoryArduinoPort.readSensorsReply(SENSOR_IDS, 200)
+		};
+
+		transport = new SerialTransport(port, 2000, SerialTransport.DEFAULT_WINDOW);
+		readSensorsPacket = SerialPacket.frame(HardwareControlInterface.COMMAND_READ_SENSORS, SENSOR_IDS.length);
+		for (int i = 0; i < SENSOR_IDS.length; i++) {
+			readSensorsPacket[SerialPacket.HEADER_SIZE + i] = (byte)SENSOR_IDS[i];
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		transport.close();
+	}
+
+	@Benchmark
+	public byte[] asPacket() {
+		return setOutputs.asPacket();
+	}
+
+	/**
+	 * Parses a read sensors reply into the sensors and drains the updates it queues
+	 */
+	@Benchmark
+	public int handleSensorsReply() throws InterruptedException {
+		byte[] reply = replies[replyIndex];
+		replyIndex ^= 1;
+		hci.handleSensorsReply(reply);
+		int updates = 0;
+		SensorData sensorData;
+		do {
+			sensorData = hci.pollSensorUpdate();
+			updates++;
+		} while (!sensorData.endOfCycle);
+		return updates;
+	}
+
+	/**
+	 * Sends a read sensors request through the transport and waits for the reply
+	 */
+	@Benchmark
+	public byte[] readSensorsRoundTrip() throws SerialPortException, SerialPortTimeoutException, InterruptedException {
+		return transport.receive(transport.send(readSensorsPacket));
+	}
+}
@@ -1,7 +1,7 @@
 package com.cwrubotix.glennifer.robot_state;
 
 import java.time.Instant;
-import java.util.EnumMap;
+import java.util.function.Supplier;
 
 /**
  * A DepositionState object encapsulates the current state of the robot's
@@ -12,6 +12,9 @@ import java.util.EnumMap;
  * 
  * This class does not deal with messages or wire formats. It works purely at
  * the logical level.
+ *
+ * Updates and queries may come from different threads. See LocomotionState
+ * for how the values are guarded and timestamped.
  */
 public class DepositionState {
 
@@ -33,13 +36,21 @@ public class DepositionState {
 // Unneccesary since there are only two load cells??
     
     /* Data members */
-    private EnumMap <LoadCell, Float> loadCellValue;
-    private EnumMap <Side, Boolean> dumpSideRetracted;
-    private EnumMap <Side, Boolean> dumpSideExtended;
-
-    // TODO: Store the time most recently updated, either for the whole system
-    // or for each sensor. If you want to handle out of order updates, you'll
-    // need to do it for each sensor I think.
+    // Values by load cell and side ordinal
+    private final float[] loadCellValue = new float[LoadCell.values().length];
+    private final boolean[] dumpSideRetracted = new boolean[Side.values().length];
+    private final boolean[] dumpSideExtended = new boolean[Side.values().length];
+    private final StateLock lock = new StateLock();
+
+    // Incremented whenever a value changes, under the write lock
+    private volatile long version = 0;
+
+    // Source time and recent readings of each sensor, recorded under the write
+    // lock. Each history guards itself, so they can be queried without it.
+    // Limit switches record 1 for pressed and 0 for not.
+    private final SensorHistory[] loadCellHistory = SensorHistory.newArray(LoadCell.values().length);
+    private final SensorHistory[] dumpLimitRetractedHistory = SensorHistory.newArray(Side.values().length);
+    private final SensorHistory[] dumpLimitExtendedHistory = SensorHistory.newArray(Side.values().length);
     
     /* Constructor */
     
@@ -52,34 +63,47 @@ public class DepositionState {
          */
         
         // TODO: handle no input from sensor
-
-        loadCellValue = new EnumMap<>(LoadCell.class);
-        loadCellValue.put(LoadCell.LEFT, (float)0);
-        loadCellValue.put(LoadCell.RIGHT, (float)0);
-
-        dumpSideRetracted = new EnumMap<>(Side.class);
-        dumpSideRetracted.put(Side.LEFT, false);
-        dumpSideRetracted.put(Side.RIGHT, false);
-
-        dumpSideExtended = new EnumMap<>(Side.class);
-        dumpSideExtended.put(Side.LEFT, false);
-        dumpSideExtended.put(Side.RIGHT, false);
-
     }
     /* Update methods */
     
     public void updateDumpLoad (LoadCell cell, float load, Instant time) throws RobotFaultException {
-        // TODO: use timestamp to validate data
         // TODO: detect impossibly sudden changes
-        loadCellValue.put(cell, load);
+        long stamp = lock.writeLock();
+        try {
+            loadCellHistory[cell.ordinal()].record(load, time);
+            if (loadCellValue[cell.ordinal()] != load) {
+                loadCellValue[cell.ordinal()] = load;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     public void updateDumpLimitExtended (Side side, boolean pressed, Instant time) throws RobotFaultException {
-        dumpSideExtended.put(side, pressed);
+        long stamp = lock.writeLock();
+        try {
+            dumpLimitExtendedHistory[side.ordinal()].record(pressed ? 1 : 0, time);
+            if (dumpSideExtended[side.ordinal()] != pressed) {
+                dumpSideExtended[side.ordinal()] = pressed;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     public void updateDumpLimitRetracted (Side side, boolean pressed, Instant time) throws RobotFaultException {
-        dumpSideRetracted.put(side, pressed);
+        long stamp = lock.writeLock();
+        try {
+            dumpLimitRetractedHistory[side.ordinal()].record(pressed ? 1 : 0, time);
+            if (dumpSideRetracted[side.ordinal()] != pressed) {
+                dumpSideRetracted[side.ordinal()] = pressed;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     /* State getter methods */
@@ -90,21 +114,58 @@ public class DepositionState {
     }
     
     public float getDumpLoad(LoadCell cell) {
-        return loadCellValue.get(cell);
+        return lock.readFloat(() -> loadCellValue[cell.ordinal()]);
     }
 
     public float getDumpLoad() {
         //TODO: use linear functions to get more accurate reading
-        return loadCellValue.get(LoadCell.LEFT) + loadCellValue.get(LoadCell.RIGHT);
+        return lock.readFloat(() -> loadCellValue[LoadCell.LEFT.ordinal()] + loadCellValue[LoadCell.RIGHT.ordinal()]);
+    }
+
+    public boolean getDumpExtended() {
+        return lock.readBoolean(() -> dumpSideExtended[Side.LEFT.ordinal()] || dumpSideExtended[Side.RIGHT.ordinal()]);
+    }
+
+    public boolean getDumpRetracted() {
+        return lock.readBoolean(() -> dumpSideRetracted[Side.LEFT.ordinal()] || dumpSideRetracted[Side.RIGHT.ordinal()]);
+    }
+
+    public boolean getDumpExtended(Side side) {
+        return lock.readBoolean(() -> dumpSideExtended[side.ordinal()]);
     }
 
-    public boolean getDumpExtended() { return dumpSideExtended.get(Side.LEFT) || dumpSideExtended.get(Side.RIGHT); }
+    public boolean getDumpRetracted(Side side) {
+        return lock.readBoolean(() -> dumpSideRetracted[side.ordinal()]);
+    }
 
-    public boolean getDumpRetracted() { return dumpSideRetracted.get(Side.LEFT) || dumpSideRetracted.get(Side.RIGHT); }
+    /* Sensor history getter methods, to check how fresh a value is before
+     * acting on it */
 
-    public boolean getDumpExtended(Side side) { return dumpSideExtended.get(side); }
+    public SensorHistory getDumpLoadHistory(LoadCell cell) {
+        return loadCellHistory[cell.ordinal()];
+    }
 
-    public boolean getDumpRetracted(Side side) { return dumpSideRetracted.get(side); }
+    public SensorHistory getDumpLimitExtendedHistory(Side side) {
+        return dumpLimitExtendedHistory[side.ordinal()];
+    }
 
+    public SensorHistory getDumpLimitRetractedHistory(Side side) {
+        return dumpLimitRetractedHistory[side.ordinal()];
+    }
 
-}	
\ No newline at end of file
+    /**
+     * Runs a query that reads several values consistently, see StateLock
+     * @param query reads this state through its getters
+     * @return the result of the query
+     */
+    public <T> T read(Supplier<T> query) {
+        return lock.read(query);
+    }
+
+    /**
+     * @return a number that changes every time any value in this state changes
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -1,7 +1,7 @@
 package com.cwrubotix.glennifer.robot_state;
 
 import java.time.Instant;
-import java.util.EnumMap;
+import java.util.function.Supplier;
 
 /**
  * A ExcavationState object encapsulates the current state of the robot's
@@ -12,6 +12,9 @@ import java.util.EnumMap;
  * 
  * This class does not deal with messages or wire formats. It works purely at
  * the logical level.
+ *
+ * Updates and queries may come from different threads. See LocomotionState
+ * for how the values are guarded and timestamped.
  */
 public class ExcavationState {
 
@@ -25,13 +28,25 @@ public class ExcavationState {
 	private float translationDisplacement;
 	private float armPos;
     private float conveyorCurrent; 
-    private EnumMap <Side, Boolean> armSideExtended;
-    private Boolean translationRetracted;
-    private EnumMap <Side, Boolean> translationSideExtended;
+    // Limit switches by side ordinal
+    private final boolean[] armSideExtended = new boolean[Side.values().length];
+    private boolean translationRetracted;
+    private final boolean[] translationSideExtended = new boolean[Side.values().length];
+    private final StateLock lock = new StateLock();
 
-    // TODO: Store the time most recently updated, either for the whole system
-    // or for each sensor. If you want to handle out of order updates, you'll
-    // need to do it for each sensor I think.
+    // Incremented whenever a value changes, under the write lock
+    private volatile long version = 0;
+
+    // Source time and recent readings of each sensor, recorded under the write
+    // lock. Each history guards itself, so they can be queried without it.
+    // Limit switches record 1 for pressed and 0 for not.
+    private final SensorHistory conveyorRpmHistory = new SensorHistory();
+    private final SensorHistory translationDisplacementHistory = new SensorHistory();
+    private final SensorHistory armPosHistory = new SensorHistory();
+    private final SensorHistory conveyorCurrentHistory = new SensorHistory();
+    private final SensorHistory[] armLimitExtendedHistory = SensorHistory.newArray(Side.values().length);
+    private final SensorHistory translationLimitRetractedHistory = new SensorHistory();
+    private final SensorHistory[] translationLimitExtendedHistory = SensorHistory.newArray(Side.values().length);
     
     /* Constructor */
     
@@ -48,57 +63,107 @@ public class ExcavationState {
         translationDisplacement = 0;
 		armPos = 0;
         conveyorCurrent = 0;
-
-        armSideExtended = new EnumMap<>(Side.class);
-        armSideExtended.put(Side.LEFT, false);
-        armSideExtended.put(Side.RIGHT, false);
-
         translationRetracted = false;
-
-        translationSideExtended = new EnumMap<>(Side.class);
-        translationSideExtended.put(Side.LEFT, false);
-        translationSideExtended.put(Side.RIGHT, false);
-
     }
     
     /* Update methods */
     
     public void updateConveyorRpm (float rpm, Instant time) throws RobotFaultException {
-        // TODO: use timestamp to validate data
         // TODO: detect impossibly sudden changes
         // TODO: consider updating stored conveyor speed here
-        conveyorRpm = rpm;
+        long stamp = lock.writeLock();
+        try {
+            conveyorRpmHistory.record(rpm, time);
+            if (conveyorRpm != rpm) {
+                conveyorRpm = rpm;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     public void updateArmPos (float pos, Instant time) throws RobotFaultException {
-        // TODO: use timestamp to validate data
         // TODO: detect impossibly sudden changes
         // TODO: consider updating stored configuration
-        armPos = pos;
+        long stamp = lock.writeLock();
+        try {
+            armPosHistory.record(pos, time);
+            if (armPos != pos) {
+                armPos = pos;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 	
-	public void updateTranslationDisplacement(float displacement, Instant time) throws RobotFaultException {
-        // TODO: use timestamp to validate data
+    public void updateTranslationDisplacement(float displacement, Instant time) throws RobotFaultException {
         // TODO: detect impossibly sudden changes
         // TODO: consider updating stored configuration
-        translationDisplacement = displacement;
+        long stamp = lock.writeLock();
+        try {
+            translationDisplacementHistory.record(displacement, time);
+            if (translationDisplacement != displacement) {
+                translationDisplacement = displacement;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
-    public void updateConveyorCurrent(float current, Instant time) throws RobotFaultException{
-        conveyorCurrent = current;
+    public void updateConveyorCurrent(float current, Instant time) throws RobotFaultException {
+        long stamp = lock.writeLock();
+        try {
+            conveyorCurrentHistory.record(current, time);
+            if (conveyorCurrent != current) {
+                conveyorCurrent = current;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     public void updateArmLimitExtended (Side side, boolean pressed, Instant time) throws RobotFaultException {
         // TODO: use limit switches
-        armSideExtended.put(side, pressed);
+        long stamp = lock.writeLock();
+        try {
+            armLimitExtendedHistory[side.ordinal()].record(pressed ? 1 : 0, time);
+            if (armSideExtended[side.ordinal()] != pressed) {
+                armSideExtended[side.ordinal()] = pressed;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 	
-	public void updateTranslationLimitExtended(Side side, boolean pressed, Instant time) throws RobotFaultException {
-        translationSideExtended.put(side, pressed);
+    public void updateTranslationLimitExtended(Side side, boolean pressed, Instant time) throws RobotFaultException {
+        long stamp = lock.writeLock();
+        try {
+            translationLimitExtendedHistory[side.ordinal()].record(pressed ? 1 : 0, time);
+            if (translationSideExtended[side.ordinal()] != pressed) {
+                translationSideExtended[side.ordinal()] = pressed;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     public void updateTranslationLimitRetracted(boolean pressed, Instant time) throws RobotFaultException {
-        translationRetracted = pressed;
+        long stamp = lock.writeLock();
+        try {
+            translationLimitRetractedHistory.record(pressed ? 1 : 0, time);
+            if (translationRetracted != pressed) {
+                translationRetracted = pressed;
+                version++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
     
     /* State getter methods */
@@ -117,38 +182,85 @@ public class ExcavationState {
     }
     
     public float getTranslationDisplacement() {
-		return translationDisplacement;
-	}
+        return lock.readFloat(() -> translationDisplacement);
+    }
         
     public float getConveyorRpm() {
-        return conveyorRpm;
+        return lock.readFloat(() -> conveyorRpm);
     }
     
     public float getArmPos() {
-        return armPos;
+        return lock.readFloat(() -> armPos);
+    }
+
+    public float getConveyorCurrent() {
+        return lock.readFloat(() -> conveyorCurrent);
+    }
+
+    public boolean getArmExtended(Side side) {
+        return lock.readBoolean(() -> armSideExtended[side.ordinal()]);
+    }
+
+    public boolean getTranslationExtended(Side side) {
+        return lock.readBoolean(() -> translationSideExtended[side.ordinal()]);
+    }
+
+    public boolean getArmExtended() {
+        return lock.readBoolean(() -> armSideExtended[Side.LEFT.ordinal()] || armSideExtended[Side.RIGHT.ordinal()]);
+    }
+
+    public boolean getTranslationRetracted() {
+        return lock.readBoolean(() -> translationRetracted);
+    }
+
+    public boolean getTranslationExtended() {
+        return lock.readBoolean(() -> translationSideExtended[Side.LEFT.ordinal()] || translationSideExtended[Side.RIGHT.ordinal()]);
+    }
+
+    /* Sensor history getter methods, to check how fresh a value is before
+     * acting on it */
+
+    public SensorHistory getConveyorRpmHistory() {
+        return conveyorRpmHistory;
+    }
+
+    public SensorHistory getTranslationDisplacementHistory() {
+        return translationDisplacementHistory;
+    }
+
+    public SensorHistory getArmPosHistory() {
+        return armPosHistory;
     }
 
-    public float getConveyorCurrent(){
-        return conveyorCurrent;
+    public SensorHistory getConveyorCurrentHistory() {
+        return conveyorCurrentHistory;
     }
 
-    public boolean getArmExtended(Side side) { 
-        return armSideExtended.get(side);
+    public SensorHistory getArmLimitExtendedHistory(Side side) {
+        return armLimitExtendedHistory[side.ordinal()];
     }
 
-    public boolean getTranslationExtended(Side side) { 
-        return translationSideExtended.get(side); 
+    public SensorHistory getTranslationLimitExtendedHistory(Side side) {
+        return translationLimitExtendedHistory[side.ordinal()];
     }
 
-    public boolean getArmExtended() { 
-        return armSideExtended.get(Side.LEFT) || armSideExtended.get(Side.RIGHT); 
+    public SensorHistory getTranslationLimitRetractedHistory() {
+        return translationLimitRetractedHistory;
     }
 
-    public boolean getTranslationRetracted() { 
-        return translationRetracted;
+    /**
+     * Runs a query that reads several values consistently, see StateLock
+     * @param query reads this state through its getters
+     * @return the result of the query
+     */
+    public <T> T read(Supplier<T> query) {
+        return lock.read(query);
     }
 
-    public boolean getTranslationExtended() { 
-        return translationSideExtended.get(Side.LEFT) || translationSideExtended.get(Side.RIGHT); 
+    /**
+     * @return a number that changes every time any value in this state changes
+     */
+    public long getVersion() {
+        return version;
     }
-}	
\ No newline at end of file
+}
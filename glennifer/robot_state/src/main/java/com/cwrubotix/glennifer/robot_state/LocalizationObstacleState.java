@@ -1,15 +1,14 @@
 package com.cwrubotix.glennifer.robot_state;
 
-import java.util.Optional;
+import java.time.Instant;
 import java.util.List;
-import java.util.ArrayList;
 
 import com.cwrubotix.glennifer.Messages.LocalizationPosition;
 import com.cwrubotix.glennifer.Messages.ObstaclePosition;
 
 /**
- * A LocomotionState object encapsulates the current state of the robot's
- * locomotion subsystem. It has update methods to give it sensor data, and
+ * A LocalizationObstacleState object encapsulates the robot's position in the
+ * arena and the obstacles it has found. It has update methods to give it sensor data, and
  * getter methods to query the state. Its update methods can raise fault
  * exceptions for all kinds of reasons. These faults can be responded to using
  * the adjustment method.
@@ -17,19 +16,34 @@ import com.cwrubotix.glennifer.Messages.ObstaclePosition;
  * This class does not deal with messages or wire formats. It works purely at
  * the logical level.
  *
+ * Each obstacle detection is fused into the ObstacleTrack it falls within, or
+ * starts a new one, and only tracks seen often enough to be confirmed are
+ * published. See ObstacleTrack for how confidence builds and decays. Tracks are
+ * kept in an ObstacleGrid that is replaced, never changed, on each update, so
+ * readers get a consistent list without locking and matching a detection costs
+ * a few cell lookups.
  *
+ * Tracks whose confidence has decayed away are dropped as detections arrive,
+ * and when the obstacles or the version are read, so obstacles that are no
+ * longer seen drop out even while the detector is quiet. Dropping them from a
+ * reader takes the same lock as the updates, but only when a track has expired.
  */
 public class LocalizationObstacleState {
 
     
 
     /* Data members */
-    LocalizationPosition robotPosition = LocalizationPosition.newBuilder()
+    private volatile LocalizationPosition robotPosition = LocalizationPosition.newBuilder()
                                                             .setXPosition(0)
                                                             .setYPosition(0)
                                                             .setBearingAngle(0)
                                                             .build();
-    ArrayList<ObstaclePosition> obstacles = new ArrayList<ObstaclePosition>();
+    // Obstacle tracks in arena coordinates
+    private volatile ObstacleGrid obstacles = ObstacleGrid.EMPTY;
+    private long nextTrackId = 0;
+
+    // Incremented whenever a value changes, only while holding the lock on this
+    private volatile long version = 0;
     
     /* Constructor */
 
@@ -46,15 +60,29 @@ public class LocalizationObstacleState {
     }
     
     /* Update methods */
-    public void updateLocalizationPosition(LocalizationPosition robotPosition) throws RobotFaultException {
-            this.robotPosition = robotPosition;
+    public synchronized void updateLocalizationPosition(LocalizationPosition robotPosition) throws RobotFaultException {
+            if (!this.robotPosition.equals(robotPosition)) {
+                this.robotPosition = robotPosition;
+                version++;
+            }
         }
         // TODO: use timestamp to validate data
         // TODO: detect impossibly sudden changes
 
     public void addObstacle(ObstaclePosition obstaclePosition) throws RobotFaultException {
-        float obstacleDistance = (float) Math.sqrt(Math.pow(obstaclePosition.getXPosition(), 2) + Math.pow(obstaclePosition.getYPosition(), 2));
-        float obstacleAngle = (float) Math.atan(obstaclePosition.getYPosition() / obstaclePosition.getXPosition());
+        addObstacle(obstaclePosition, null);
+    }
+
+    /**
+     * Fuses an obstacle detection into the obstacles found so far
+     * @param obstaclePosition the obstacle relative to the robot
+     * @param time when it was detected, or null for now
+     */
+    public synchronized void addObstacle(ObstaclePosition obstaclePosition, Instant time) throws RobotFaultException {
+        long timeMillis = (time == null ? Instant.now() : time).toEpochMilli();
+        // The obstacle is reported relative to the robot
+        float obstacleDistance = (float) Math.hypot(obstaclePosition.getXPosition(), obstaclePosition.getYPosition());
+        float obstacleAngle = (float) Math.atan2(obstaclePosition.getYPosition(), obstaclePosition.getXPosition());
         ObstaclePosition newObstacle = ObstaclePosition.newBuilder()
                                                         .setXPosition((float)(robotPosition.getXPosition() + obstacleDistance * Math.cos(robotPosition.getBearingAngle() + obstacleAngle)))
                                                         .setYPosition((float)(robotPosition.getYPosition() + obstacleDistance * Math.sin(robotPosition.getBearingAngle() + obstacleAngle)))
@@ -62,25 +90,75 @@ public class LocalizationObstacleState {
                                                         .setDiameter(obstaclePosition.getDiameter())
                                                         .build();
 
-
-
-        for(ObstaclePosition obstacle : obstacles){
-            if((Math.abs(newObstacle.getXPosition() - obstacle.getXPosition()) < obstacle.getDiameter()) &&
-                (Math.abs(newObstacle.getYPosition() - obstacle.getYPosition()) < obstacle.getDiameter())){
-                return;
-            }
+        expire(timeMillis);
+        ObstacleGrid grid = obstacles;
+        ObstacleTrack track = grid.findOverlapping(newObstacle.getXPosition(), newObstacle.getYPosition());
+        ObstacleTrack newTrack;
+        if (track == null) {
+            newTrack = ObstacleTrack.start(nextTrackId++, newObstacle, timeMillis);
+            grid = grid.with(newTrack);
+        } else {
+            newTrack = track.hit(newObstacle, timeMillis);
+            grid = grid.replace(track, newTrack);
+        }
+        obstacles = grid;
+        // Only what is published counts as a change
+        ObstaclePosition published = track == null ? null : track.published;
+        if (published != newTrack.published) {
+            version++;
         }
-        obstacles.add(obstaclePosition);
-        
     }
     
+    /**
+     * Drops the tracks whose confidence has decayed away by a time
+     */
+    private void expire(long timeMillis) {
+        if (!obstacles.mayHaveExpired(timeMillis)) {
+            return;
+        }
+        synchronized (this) {
+            ObstacleGrid grid = obstacles;
+            if (grid.mayHaveExpired(timeMillis)) {
+                ObstacleGrid pruned = grid.prune(timeMillis);
+                obstacles = pruned;
+                // Only what is published counts as a change
+                if (pruned.getPublished().size() != grid.getPublished().size()) {
+                    version++;
+                }
+            }
+        }
+    }
+
     /* State getter methods */
    
     public LocalizationPosition getLocPosition(){
         return robotPosition;
     }
 
+    /**
+     * @return the confirmed obstacles in arena coordinates, in the order they
+     * were found. The list can not be modified and does not change.
+     */
     public List<ObstaclePosition> getObstacles(){
-        return obstacles;
+        expire(System.currentTimeMillis());
+        return obstacles.getPublished();
+    }
+
+    /**
+     * @param x arena x coordinate
+     * @param y arena y coordinate
+     * @return the confirmed obstacle whose center is nearest the point, or null if there are none
+     */
+    public ObstaclePosition getNearestObstacle(float x, float y) {
+        expire(System.currentTimeMillis());
+        return obstacles.nearest(x, y);
+    }
+
+    /**
+     * @return a number that changes every time any value in this state changes
+     */
+    public long getVersion() {
+        expire(System.currentTimeMillis());
+        return version;
     }
 }
@@ -1,9 +1,7 @@
 package com.cwrubotix.glennifer.robot_state;
 
-import java.time.Duration;
 import java.time.Instant;
-import java.util.EnumMap;
-import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * A LocomotionState object encapsulates the current state of the robot's
@@ -15,6 +13,14 @@ import java.util.Optional;
  * This class does not deal with messages or wire formats. It works purely at
  * the logical level.
  *
+ * Updates and queries may come from different threads. Values are primitives
+ * guarded by a StateLock, so readers never block the updater in the common
+ * case.
+ *
+ * Each sensor's readings are also kept in a SensorHistory along with the time
+ * they were taken at the source. A reading older than the newest one for its
+ * sensor is dropped and raises an OUT_OF_ORDER_UPDATE fault. A null time is
+ * taken to mean the reading was taken when it arrived.
  *
  */
 public class LocomotionState {
@@ -31,15 +37,17 @@ public class LocomotionState {
     }
 
     /* Data members */
-    private EnumMap<Wheel, Optional<Float>> wheelRpm;
+    // RPM of each wheel by ordinal, valid where hasWheelRpm is set
+    private final float[] wheelRpm = new float[Wheel.values().length];
+    private final boolean[] hasWheelRpm = new boolean[Wheel.values().length];
+    private final StateLock lock = new StateLock();
 
-    // TODO: Store the time most recently updated, either for the whole system
-    // or for each sensor. If you want to handle out of order updates, you'll
-    // need to do it for each sensor I think.
+    // Incremented whenever a value changes, under the write lock
+    private volatile long version = 0;
 
-    //Instants for containing time since updates
-    private Instant timeSinceWheelRPM;
-    private Instant timeSystem;    
+    // Source time and recent readings of each sensor, recorded under the write
+    // lock. Each history guards itself, so they can be queried without it.
+    private final SensorHistory[] wheelRpmHistory = SensorHistory.newArray(Wheel.values().length);
     
     /* Constructor */
 
@@ -52,65 +60,44 @@ public class LocomotionState {
          */
 
         // TODO: handle no input from sensor
-    	//Initialize with empty optionals, if that's a thing
-        wheelRpm = new EnumMap<>(Wheel.class);
-        wheelRpm.put(Wheel.FRONT_LEFT, Optional.empty());
-        wheelRpm.put(Wheel.FRONT_RIGHT, Optional.empty());
-        wheelRpm.put(Wheel.BACK_LEFT, Optional.empty());
-        wheelRpm.put(Wheel.BACK_RIGHT, Optional.empty());
+        // Wheels start out not reporting
     }
     
     /* Update methods */
-    //when this is called, rpm will never be null
     public void updateWheelRpm(Wheel wheel, float rpm, Instant time) throws RobotFaultException {
-        // TODO: use timestamp to validate data
         // TODO: detect impossibly sudden changes
 
-        wheelRpm.put(wheel, Optional.of(rpm));
-
-        //Check if time is null
-        Optional<Instant> opTime = Optional.ofNullable(time);
-        if ((opTime.isPresent()) && timeSinceWheelRPM != null) {
-            Duration duration = Duration.between(time, timeSinceWheelRPM);
-
-            //some given consistency value?
-            if (duration.toMillis() > 2000) {
-                //throw something?
+        long stamp = lock.writeLock();
+        try {
+            int i = wheel.ordinal();
+            wheelRpmHistory[i].record(rpm, time);
+            if (!hasWheelRpm[i] || wheelRpm[i] != rpm) {
+                wheelRpm[i] = rpm;
+                hasWheelRpm[i] = true;
+                version++;
             }
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        //else update PodPos time
-        timeSinceWheelRPM = Instant.now();
     }
     
     /* State getter methods */
    
     public float getSpeed() {
         // TODO: use physical constants, real or made up, to get speed
+        return lock.readFloat(() -> averageWheelRpm());
+    }
 
+    private float averageWheelRpm() {
         //number of wheels reporting values
         int divNum = 0;
         //total RPM for forward speed
-        Float rpmTot = (float) 0;
-        
-        Optional<Float> rpmWL = wheelRpm.get(Wheel.FRONT_LEFT);
-        if (rpmWL.isPresent()) {
-            divNum++;
-            rpmTot += rpmWL.get();
-        }
-        rpmWL = wheelRpm.get(Wheel.FRONT_RIGHT);
-        if (rpmWL.isPresent()) {
-            divNum++;
-            rpmTot += rpmWL.get();
-        }
-        rpmWL = wheelRpm.get(Wheel.BACK_LEFT);
-        if (rpmWL.isPresent()) {
-            divNum++;
-            rpmTot += rpmWL.get();
-        }
-        rpmWL = wheelRpm.get(Wheel.BACK_RIGHT);
-        if (rpmWL.isPresent()) {
-            divNum++;
-            rpmTot += rpmWL.get();
+        float rpmTot = 0;
+        for (int i = 0; i < wheelRpm.length; i++) {
+            if (hasWheelRpm[i]) {
+                divNum++;
+                rpmTot += wheelRpm[i];
+            }
         }
         //speed is the averaged RPM for reporting wheels
         return rpmTot / divNum;
@@ -118,9 +105,31 @@ public class LocomotionState {
 
     //
     public float getWheelRpm(Wheel wheel) {
-        if (wheelRpm.get(wheel).isPresent()){
-            return wheelRpm.get(wheel).get();
-        }   
-        return 0f;
+        int i = wheel.ordinal();
+        return lock.readFloat(() -> hasWheelRpm[i] ? wheelRpm[i] : 0f);
+    }
+
+    /**
+     * @return the source times and recent readings of a wheel's RPM, to check
+     * how fresh the value is before acting on it
+     */
+    public SensorHistory getWheelRpmHistory(Wheel wheel) {
+        return wheelRpmHistory[wheel.ordinal()];
+    }
+
+    /**
+     * Runs a query that reads several values consistently, see StateLock
+     * @param query reads this state through its getters
+     * @return the result of the query
+     */
+    public <T> T read(Supplier<T> query) {
+        return lock.read(query);
+    }
+
+    /**
+     * @return a number that changes every time any value in this state changes
+     */
+    public long getVersion() {
+        return version;
     }
 }
@@ -0,0 +1,281 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.cwrubotix.glennifer.Messages.ObstaclePosition;
+
+/**
+ * The obstacle tracks so far, hashed into a uniform grid over the arena so
+ * that matching a new detection to a track and finding the obstacle nearest a
+ * point only look at the cells around it.
+ *
+ * An ObstacleGrid never changes. Adding or replacing a track returns a new grid
+ * that shares every cell but the ones it touched, so readers can hold on to a
+ * grid while the updater moves on. Tracks outside the arena go into the
+ * nearest edge cell.
+ */
+final class ObstacleGrid {
+
+    // Arena coordinates: x is across, centered on 0, y is along, from 0
+    static final float ARENA_WIDTH = 3.78F;
+    static final float ARENA_HEIGHT = 7.38F;
+    static final float CELL_SIZE = 0.5F;
+    private static final int COLUMNS = (int) Math.ceil(ARENA_WIDTH / CELL_SIZE);
+    private static final int ROWS = (int) Math.ceil(ARENA_HEIGHT / CELL_SIZE);
+
+    static final ObstacleGrid EMPTY = new ObstacleGrid(new ObstacleTrack[COLUMNS * ROWS][], 0, 0, Long.MAX_VALUE);
+
+    // Tracks in each cell by row * COLUMNS + column, null for none
+    private final ObstacleTrack[][] cells;
+    private final int size;
+    // At least the largest track diameter, so matching knows how far to look
+    private final float maxDiameter;
+    // The earliest time a track expires
+    private final long nextExpiryMillis;
+    // Built the first time it is asked for
+    private volatile List<ObstaclePosition> published;
+
+    private ObstacleGrid(ObstacleTrack[][] cells, int size, float maxDiameter, long nextExpiryMillis) {
+        this.cells = cells;
+        this.size = size;
+        this.maxDiameter = maxDiameter;
+        this.nextExpiryMillis = nextExpiryMillis;
+    }
+
+    /**
+     * @return a grid with the tracks in this one and the given one
+     */
+    ObstacleGrid with(ObstacleTrack track) {
+        ObstacleTrack[][] newCells = cells.clone();
+        add(newCells, track);
+        return new ObstacleGrid(newCells, size + 1, Math.max(maxDiameter, track.diameter),
+                Math.min(nextExpiryMillis, track.expiresAtMillis()));
+    }
+
+    /**
+     * @param old a track in this grid
+     * @param track the track to put in its place
+     * @return a grid with the track in place of the old one
+     */
+    ObstacleGrid replace(ObstacleTrack old, ObstacleTrack track) {
+        ObstacleTrack[][] newCells = cells.clone();
+        int cell = cell(old.x, old.y);
+        ObstacleTrack[] oldCell = cells[cell];
+        int i = 0;
+        while (oldCell[i] != old) {
+            i++;
+        }
+        if (cell == cell(track.x, track.y)) {
+            newCells[cell] = oldCell.clone();
+            newCells[cell][i] = track;
+        } else {
+            newCells[cell] = remove(oldCell, i);
+            add(newCells, track);
+        }
+        // The old track may have been the next to expire, but expiring early
+        // only means prune looks and finds nothing
+        return new ObstacleGrid(newCells, size, Math.max(maxDiameter, track.diameter),
+                Math.min(nextExpiryMillis, track.expiresAtMillis()));
+    }
+
+    /**
+     * @return true if a track may have expired by a time
+     */
+    boolean mayHaveExpired(long timeMillis) {
+        return timeMillis >= nextExpiryMillis;
+    }
+
+    /**
+     * @return a grid without the tracks that have expired by a time
+     */
+    ObstacleGrid prune(long timeMillis) {
+        ObstacleTrack[][] newCells = new ObstacleTrack[cells.length][];
+        int newSize = 0;
+        float newMaxDiameter = 0;
+        long newNextExpiry = Long.MAX_VALUE;
+        for (ObstacleTrack[] cell : cells) {
+            if (cell == null) {
+                continue;
+            }
+            for (ObstacleTrack track : cell) {
+                long expiry = track.expiresAtMillis();
+                if (expiry > timeMillis) {
+                    add(newCells, track);
+                    newSize++;
+                    newMaxDiameter = Math.max(newMaxDiameter, track.diameter);
+                    newNextExpiry = Math.min(newNextExpiry, expiry);
+                }
+            }
+        }
+        return new ObstacleGrid(newCells, newSize, newMaxDiameter, newNextExpiry);
+    }
+
+    /**
+     * Finds the track a detection at a point belongs to: the nearest one with
+     * the point within its diameter along both axes
+     * @return the track, or null if there are none
+     */
+    ObstacleTrack findOverlapping(float x, float y) {
+        int reach = (int) Math.ceil(maxDiameter / CELL_SIZE);
+        int column = column(x);
+        int row = row(y);
+        ObstacleTrack best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int r = Math.max(0, row - reach); r <= Math.min(ROWS - 1, row + reach); r++) {
+            for (int c = Math.max(0, column - reach); c <= Math.min(COLUMNS - 1, column + reach); c++) {
+                ObstacleTrack[] cell = cells[r * COLUMNS + c];
+                if (cell == null) {
+                    continue;
+                }
+                for (ObstacleTrack track : cell) {
+                    if (Math.abs(x - track.x) < track.diameter && Math.abs(y - track.y) < track.diameter) {
+                        double distance = Math.hypot(x - track.x, y - track.y);
+                        if (distance < bestDistance) {
+                            best = track;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the published obstacle whose center is nearest a point, or null if there are none
+     */
+    ObstaclePosition nearest(float x, float y) {
+        int column = column(x);
+        int row = row(y);
+        ObstaclePosition best = null;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ; ring++) {
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= ROWS) {
+                    continue;
+                }
+                // Only the edge of the ring, the inside was searched already
+                int step = (r == row - ring || r == row + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int c = column - ring; c <= column + ring; c += step) {
+                    if (c < 0 || c >= COLUMNS || cells[r * COLUMNS + c] == null) {
+                        continue;
+                    }
+                    for (ObstacleTrack track : cells[r * COLUMNS + c]) {
+                        ObstaclePosition obstacle = track.published;
+                        if (obstacle == null) {
+                            continue;
+                        }
+                        double distance = Math.hypot(x - obstacle.getXPosition(), y - obstacle.getYPosition());
+                        if (distance < bestDistance) {
+                            best = obstacle;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+            if (bestDistance <= unsearchedDistance(x, y, column - ring, column + ring, row - ring, row + ring)) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The cells from column lo to hi and row bottom to top have been searched.
+     * Edge cells also hold the tracks past the walls, so there is nothing left
+     * beyond a side of the searched cells that is at the edge of the grid.
+     * @return how far the point is from the nearest cell not searched yet,
+     * infinite if every cell has been searched
+     */
+    private static double unsearchedDistance(float x, float y, int lo, int hi, int bottom, int top) {
+        double distance = Double.POSITIVE_INFINITY;
+        if (lo > 0) {
+            distance = Math.min(distance, x - (lo * CELL_SIZE - ARENA_WIDTH / 2));
+        }
+        if (hi < COLUMNS - 1) {
+            distance = Math.min(distance, (hi + 1) * CELL_SIZE - ARENA_WIDTH / 2 - x);
+        }
+        if (bottom > 0) {
+            distance = Math.min(distance, y - bottom * CELL_SIZE);
+        }
+        if (top < ROWS - 1) {
+            distance = Math.min(distance, (top + 1) * CELL_SIZE - y);
+        }
+        return distance;
+    }
+
+    /**
+     * @return the published obstacles in the order their tracks were started,
+     * which can not be modified
+     */
+    List<ObstaclePosition> getPublished() {
+        List<ObstaclePosition> result = published;
+        if (result == null) {
+            List<ObstacleTrack> confirmed = new ArrayList<>();
+            for (ObstacleTrack[] cell : cells) {
+                if (cell == null) {
+                    continue;
+                }
+                for (ObstacleTrack track : cell) {
+                    if (track.isConfirmed()) {
+                        confirmed.add(track);
+                    }
+                }
+            }
+            confirmed.sort(Comparator.comparingLong(track -> track.id));
+            ObstaclePosition[] positions = new ObstaclePosition[confirmed.size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = confirmed.get(i).published;
+            }
+            result = Collections.unmodifiableList(Arrays.asList(positions));
+            published = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of tracks, confirmed or not
+     */
+    int size() {
+        return size;
+    }
+
+    private static void add(ObstacleTrack[][] cells, ObstacleTrack track) {
+        int cell = cell(track.x, track.y);
+        ObstacleTrack[] old = cells[cell];
+        if (old == null) {
+            cells[cell] = new ObstacleTrack[] {track};
+        } else {
+            cells[cell] = Arrays.copyOf(old, old.length + 1);
+            cells[cell][old.length] = track;
+        }
+    }
+
+    private static ObstacleTrack[] remove(ObstacleTrack[] cell, int i) {
+        if (cell.length == 1) {
+            return null;
+        }
+        ObstacleTrack[] result = new ObstacleTrack[cell.length - 1];
+        System.arraycopy(cell, 0, result, 0, i);
+        System.arraycopy(cell, i + 1, result, i, cell.length - i - 1);
+        return result;
+    }
+
+    private static int cell(float x, float y) {
+        return row(y) * COLUMNS + column(x);
+    }
+
+    private static int column(float x) {
+        int column = (int) Math.floor((x + ARENA_WIDTH / 2) / CELL_SIZE);
+        return Math.min(COLUMNS - 1, Math.max(0, column));
+    }
+
+    private static int row(float y) {
+        int row = (int) Math.floor(y / CELL_SIZE);
+        return Math.min(ROWS - 1, Math.max(0, row));
+    }
+}
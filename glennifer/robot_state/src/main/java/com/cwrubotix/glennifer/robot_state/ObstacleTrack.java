@@ -0,0 +1,123 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import com.cwrubotix.glennifer.Messages.ObstaclePosition;
+
+/**
+ * An obstacle as fused from every detection of it so far: the running mean of
+ * their positions and diameters, how many there were, and how confident we are
+ * that it is really there.
+ *
+ * Each detection moves the confidence part of the way to 1, and it decays
+ * exponentially while the obstacle goes unseen. A track is confirmed once its
+ * confidence reaches CONFIRM_CONFIDENCE and only then published. It is dropped
+ * once its confidence decays below DROP_CONFIDENCE, whether confirmed or not,
+ * so a one off false detection disappears without ever being published.
+ *
+ * An ObstacleTrack never changes. Each detection makes a new one.
+ */
+final class ObstacleTrack {
+
+    // Share of the remaining confidence each detection adds
+    static final float HIT_CONFIDENCE = 0.3F;
+    static final float CONFIRM_CONFIDENCE = 0.5F;
+    static final float DROP_CONFIDENCE = 0.2F;
+    // Time for the confidence to decay by a factor of e while unseen
+    static final long DECAY_TIME_MS = 60000;
+    // How far the mean position or diameter has to move before a confirmed
+    // track is published again, so small corrections don't make the planner replan
+    static final float PUBLISH_SHIFT = 0.05F;
+
+    // In the order tracks were started, to publish them in a stable order
+    final long id;
+    final float x;
+    final float y;
+    final float z;
+    final float diameter;
+    final int hits;
+    // As of lastSeenMillis
+    final float confidence;
+    final long lastSeenMillis;
+    // What was last published for this track, null until it is confirmed
+    final ObstaclePosition published;
+
+    private ObstacleTrack(long id, float x, float y, float z, float diameter, int hits,
+                          float confidence, long lastSeenMillis, ObstaclePosition published) {
+        this.id = id;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.diameter = diameter;
+        this.hits = hits;
+        this.confidence = confidence;
+        this.lastSeenMillis = lastSeenMillis;
+        this.published = published;
+    }
+
+    /**
+     * Starts a track from its first detection
+     * @param id orders this track among the others
+     * @param detection the obstacle in arena coordinates
+     * @param timeMillis when it was detected
+     */
+    static ObstacleTrack start(long id, ObstaclePosition detection, long timeMillis) {
+        return new ObstacleTrack(id, detection.getXPosition(), detection.getYPosition(), detection.getZPosition(),
+                detection.getDiameter(), 1, HIT_CONFIDENCE, timeMillis, null).publishIfNeeded();
+    }
+
+    /**
+     * Fuses another detection into this track
+     * @param detection the obstacle in arena coordinates
+     * @param timeMillis when it was detected
+     * @return the updated track
+     */
+    ObstacleTrack hit(ObstaclePosition detection, long timeMillis) {
+        int newHits = hits + 1;
+        float decayed = confidenceAt(timeMillis);
+        return new ObstacleTrack(id,
+                x + (detection.getXPosition() - x) / newHits,
+                y + (detection.getYPosition() - y) / newHits,
+                z + (detection.getZPosition() - z) / newHits,
+                diameter + (detection.getDiameter() - diameter) / newHits,
+                newHits,
+                decayed + HIT_CONFIDENCE * (1 - decayed),
+                Math.max(lastSeenMillis, timeMillis),
+                published).publishIfNeeded();
+    }
+
+    /**
+     * @return the confidence decayed to a time, or as of the last detection if the time is before it
+     */
+    float confidenceAt(long timeMillis) {
+        long unseen = timeMillis - lastSeenMillis;
+        if (unseen <= 0) {
+            return confidence;
+        }
+        return (float) (confidence * Math.exp(-(double) unseen / DECAY_TIME_MS));
+    }
+
+    /**
+     * @return when the confidence will have decayed below DROP_CONFIDENCE, if the obstacle goes unseen
+     */
+    long expiresAtMillis() {
+        return lastSeenMillis + (long) (DECAY_TIME_MS * Math.log(confidence / DROP_CONFIDENCE));
+    }
+
+    boolean isConfirmed() {
+        return published != null;
+    }
+
+    private ObstacleTrack publishIfNeeded() {
+        if (published == null ? confidence < CONFIRM_CONFIDENCE
+                : Math.hypot(x - published.getXPosition(), y - published.getYPosition()) <= PUBLISH_SHIFT
+                        && Math.abs(diameter - published.getDiameter()) <= PUBLISH_SHIFT) {
+            return this;
+        }
+        ObstaclePosition position = ObstaclePosition.newBuilder()
+                .setXPosition(x)
+                .setYPosition(y)
+                .setZPosition(z)
+                .setDiameter(diameter)
+                .build();
+        return new ObstacleTrack(id, x, y, z, diameter, hits, confidence, lastSeenMillis, position);
+    }
+}
@@ -5,6 +5,11 @@ package com.cwrubotix.glennifer.robot_state;
  * when they need to raise a fault code. Code 0 is reserved.
  */
 public class RobotFaultException extends Exception {
+
+    /* Fault codes */
+
+    // A sensor reading arrived older than the newest one already recorded
+    public static final int OUT_OF_ORDER_UPDATE = 101;
     
     private int faultCode;
     
@@ -0,0 +1,223 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A SensorHistory object keeps the most recent readings of one sensor along
+ * with the time each was taken at the source, in a fixed size window. It is
+ * used by the state classes to tell how fresh their values are, how often
+ * they are arriving, and whether updates arrive out of order.
+ *
+ * Readings are recorded from one thread and may be queried from any thread.
+ * Recording allocates nothing once the history is created.
+ */
+public class SensorHistory {
+
+    public static final int DEFAULT_CAPACITY = 32;
+
+    // Ring buffer of readings, newest at head - 1
+    private final long[] timeNanos;
+    private final float[] values;
+    private int head = 0;
+    private int size = 0;
+    private final StampedLock lock = new StampedLock();
+
+    public SensorHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SensorHistory(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Sensor history needs room for at least 2 readings");
+        }
+        timeNanos = new long[capacity];
+        values = new float[capacity];
+    }
+
+    /**
+     * @return an array of new histories with the default capacity, one for each of count sensors
+     */
+    static SensorHistory[] newArray(int count) {
+        SensorHistory[] histories = new SensorHistory[count];
+        for (int i = 0; i < count; i++) {
+            histories[i] = new SensorHistory();
+        }
+        return histories;
+    }
+
+    /* Update methods */
+
+    /**
+     * Records a reading. A reading older than the newest one already recorded
+     * is dropped and raises a fault, since acting on it would move the state
+     * back in time.
+     * @param value the reading, limit switches record 1 for pressed and 0 for not
+     * @param time when the reading was taken at the source, or null for now
+     * @throws RobotFaultException with code OUT_OF_ORDER_UPDATE if the reading is older than the newest one
+     */
+    public void record(float value, Instant time) throws RobotFaultException {
+        long nanos = toNanos(time == null ? Instant.now() : time);
+        long stamp = lock.writeLock();
+        try {
+            if (size > 0 && nanos < timeNanos[newest()]) {
+                throw new RobotFaultException(RobotFaultException.OUT_OF_ORDER_UPDATE);
+            }
+            timeNanos[head] = nanos;
+            values[head] = value;
+            head = (head + 1) % timeNanos.length;
+            if (size < timeNanos.length) {
+                size++;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /* Getter methods */
+
+    /**
+     * @return the number of readings in the window
+     */
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int result = size;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                result = size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the source time of the newest reading, or null if there are none
+     */
+    public Instant getLastUpdated() {
+        long stamp = lock.tryOptimisticRead();
+        long nanos = size == 0 ? Long.MIN_VALUE : timeNanos[newest()];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                nanos = size == 0 ? Long.MIN_VALUE : timeNanos[newest()];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return nanos == Long.MIN_VALUE ? null : fromNanos(nanos);
+    }
+
+    /**
+     * @param now the current time
+     * @return how long ago the newest reading was taken, or null if there are none
+     */
+    public Duration getStaleness(Instant now) {
+        Instant last = getLastUpdated();
+        return last == null ? null : Duration.between(last, now);
+    }
+
+    /**
+     * @param maxAge the oldest a reading can be and still be used
+     * @param now the current time
+     * @return true if there are no readings or the newest is older than maxAge
+     */
+    public boolean isStale(Duration maxAge, Instant now) {
+        Duration staleness = getStaleness(now);
+        return staleness == null || staleness.compareTo(maxAge) > 0;
+    }
+
+    /**
+     * @return the average number of readings per second across the window, or
+     * 0 if there are fewer than 2 readings or they all have the same time
+     */
+    public float getRate() {
+        long stamp = lock.tryOptimisticRead();
+        float rate = rate();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                rate = rate();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * @param age 0 for the newest reading, 1 for the one before, and so on
+     * @return the reading
+     * @throws IndexOutOfBoundsException if there are not that many readings
+     */
+    public float getValue(int age) {
+        long stamp = lock.tryOptimisticRead();
+        int i = index(age);
+        float value = values[i];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = values[index(age)];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param age 0 for the newest reading, 1 for the one before, and so on
+     * @return the source time of the reading
+     * @throws IndexOutOfBoundsException if there are not that many readings
+     */
+    public Instant getTime(int age) {
+        long stamp = lock.tryOptimisticRead();
+        int i = index(age);
+        long nanos = timeNanos[i];
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                nanos = timeNanos[index(age)];
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return fromNanos(nanos);
+    }
+
+    /* Helpers, called with the lock held or inside an optimistic read */
+
+    private int newest() {
+        return (head - 1 + timeNanos.length) % timeNanos.length;
+    }
+
+    private int index(int age) {
+        if (age < 0 || age >= size) {
+            throw new IndexOutOfBoundsException("Sensor history has " + size + " readings, asked for " + age);
+        }
+        return (head - 1 - age + 2 * timeNanos.length) % timeNanos.length;
+    }
+
+    private float rate() {
+        if (size < 2) {
+            return 0;
+        }
+        int oldest = (head - size + timeNanos.length) % timeNanos.length;
+        long span = timeNanos[newest()] - timeNanos[oldest];
+        if (span <= 0) {
+            return 0;
+        }
+        return (size - 1) * 1e9f / span;
+    }
+
+    private static long toNanos(Instant time) {
+        return time.getEpochSecond() * 1000000000L + time.getNano();
+    }
+
+    private static Instant fromNanos(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, 1000000000L), Math.floorMod(nanos, 1000000000L));
+    }
+}
@@ -0,0 +1,71 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The lock guarding the values of a subsystem's state. Updates take the write
+ * lock. Queries read optimistically, and only fall back to the read lock if an
+ * update ran while they were reading, so readers never block the updater in
+ * the common case.
+ *
+ * A query may run more than once, so it must not have side effects. Its
+ * result is consistent with a single point in time, as if no update ran
+ * during it.
+ */
+final class StateLock extends StampedLock {
+
+    /**
+     * @param query reads the state's values
+     * @return the result of the query
+     */
+    <T> T read(Supplier<T> query) {
+        long stamp = tryOptimisticRead();
+        T result = query.get();
+        if (!validate(stamp)) {
+            stamp = readLock();
+            try {
+                result = query.get();
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Like read, without boxing, for a getter of a float value
+     */
+    float readFloat(DoubleSupplier query) {
+        long stamp = tryOptimisticRead();
+        double result = query.getAsDouble();
+        if (!validate(stamp)) {
+            stamp = readLock();
+            try {
+                result = query.getAsDouble();
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+        return (float) result;
+    }
+
+    /**
+     * Like read, without boxing, for a getter of a boolean value
+     */
+    boolean readBoolean(BooleanSupplier query) {
+        long stamp = tryOptimisticRead();
+        boolean result = query.getAsBoolean();
+        if (!validate(stamp)) {
+            stamp = readLock();
+            try {
+                result = query.getAsBoolean();
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+        return result;
+    }
+}
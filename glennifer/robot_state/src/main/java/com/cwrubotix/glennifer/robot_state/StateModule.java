@@ -8,6 +8,7 @@ import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
 
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BlockedListener;
 
 import com.cwrubotix.glennifer.Messages;
 import com.cwrubotix.glennifer.Messages.LoadUpdate;
@@ -21,14 +22,34 @@ import com.cwrubotix.glennifer.Messages.Fault;
 import com.cwrubotix.glennifer.Messages.UnixTime;
 import com.cwrubotix.glennifer.Messages.LocalizationPosition;
 import com.cwrubotix.glennifer.Messages.ObstaclePosition;
+import com.cwrubotix.glennifer.Messages.SensorBatch;
+import com.cwrubotix.glennifer.Messages.SensorBatchEntry;
+import com.google.protobuf.CodedOutputStream;
+import org.yaml.snakeyaml.Yaml;
 
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
 
 /**
  *
@@ -36,122 +57,428 @@ import java.util.concurrent.TimeoutException;
  */
 public class StateModule {
 
-    class SubscriptionRunnable implements Runnable {
-
-        private String returnKey;
-        private int interval_ms;
-        private boolean loc_summary;
-        private boolean loc_detailed;
-        private boolean exc_summary;
-        private boolean exc_detailed;
-        private boolean dep_summary;
-        private boolean dep_detailed;
-        private boolean loc_obs_detailed;
-
-        public SubscriptionRunnable(String returnKey, int interval_ms, boolean loc_summary, boolean loc_detailed,
-                                                                        boolean exc_summary, boolean exc_detailed,
-                                                                        boolean dep_summary, boolean dep_detailed,
-                                                                        boolean loc_obs_detailed) {
+    /* Sections of the state a subscriber asked for, as bits of a mask */
+    static final int LOC_SUMMARY = 1;
+    static final int LOC_DETAILED = 1 << 1;
+    static final int EXC_SUMMARY = 1 << 2;
+    static final int EXC_DETAILED = 1 << 3;
+    static final int DEP_SUMMARY = 1 << 4;
+    static final int DEP_DETAILED = 1 << 5;
+    static final int LOC_OBS_DETAILED = 1 << 6;
+    static final int ALL_SECTIONS = (1 << 7) - 1;
+
+    /* Index of each subsystem's state version in a versions array */
+    private static final int LOC_VERSION = 0;
+    private static final int EXC_VERSION = 1;
+    private static final int DEP_VERSION = 2;
+    private static final int LOC_OBS_VERSION = 3;
+    private static final int NUM_VERSIONS = 4;
+    // The sections that come from each subsystem, by version index
+    private static final int[] VERSION_SECTIONS = {
+            LOC_SUMMARY | LOC_DETAILED,
+            EXC_SUMMARY | EXC_DETAILED,
+            DEP_SUMMARY | DEP_DETAILED,
+            LOC_OBS_DETAILED
+    };
+
+    // Shortest subscription interval, so a zero interval doesn't spin the scheduler
+    private static final int MIN_INTERVAL_MS = 1;
+
+    // Update bindings, each consumed on its own channel so a slow update in one never holds up
+    // updates queued in another. HCI sends a whole cycle as one sensor.batch message when it
+    // batches, so batches get a channel of their own.
+    private static final String[] UPDATE_BINDINGS = {
+            "sensor.locomotion.#",
+            "sensor.excavation.#",
+            "sensor.deposition.#",
+            "sensor.batch",
+            "loc.#"
+    };
+    public static final int DEFAULT_UPDATE_PREFETCH = 64;
+    private static final String CONFIG_PATH = "config/connection.yml";
+
+    /* Subscribers that fall behind */
+    // Each subscriber consumes from a queue named after its reply key, which this module declares
+    // and binds as well, so it can see states pile up there. Publishing only hands a state to the
+    // broker, so how long it takes says nothing about any one subscriber. Every queue is checked
+    // this often, on a thread of its own since each check waits on the broker.
+    private static final int PROBE_INTERVAL_MS = 100;
+    // A subscriber is behind when more than this many states wait in its queue, and has caught
+    // up once none do
+    private static final int BEHIND_DEPTH = 4;
+    // Most ticks between states sent to a subscriber that is behind
+    private static final int MAX_DOWNSAMPLE = 16;
+    // Failed publishes in a row before a subscriber is dropped
+    private static final int MAX_FAILURES = 5;
+
+    static class Subscription {
+
+        private final String returnKey;
+        private final int interval_ms;
+        private final int sections;
+        // Only send the sections whose subsystem changed since the last state sent
+        private final boolean onChange;
+        // Versions of each subsystem in the last state sent, -1 before the first
+        private final long[] sentVersions = new long[NUM_VERSIONS];
+
+        // Written only by the scheduler, volatile so getSubscriberStats sees them
+        private volatile long published = 0;
+        private volatile long skipped = 0;
+        private volatile long failed = 0;
+        private int failuresInARow = 0;
+        // Written only by the prober, volatile so the scheduler and getSubscriberStats see them
+        // States waiting in the subscriber's queue when last checked, -1 if it can not be checked
+        private volatile int queueDepth = -1;
+        // Send a state every this many ticks, more than 1 while behind
+        private volatile int downsample = 1;
+        // Whether its queue has been declared and bound, and false once it could not be checked
+        private boolean declared = false;
+        private boolean measurable = true;
+        private int ticksSinceSent = 0;
+
+        Subscription(String returnKey, int interval_ms, int sections, boolean onChange) {
             this.returnKey = returnKey;
             this.interval_ms = interval_ms;
-            this.loc_summary = loc_summary;
-            this.loc_detailed = loc_detailed;
-            this.exc_summary = exc_summary;
-            this.exc_detailed = exc_detailed;
-            this.dep_summary = dep_summary;
-            this.dep_detailed = dep_detailed;
-            this.loc_obs_detailed = loc_obs_detailed;
+            this.sections = sections;
+            this.onChange = onChange;
+            Arrays.fill(sentVersions, -1);
         }
 
-        @Override
-        public void run() {
-            boolean go = true;
-            while (go) {
-                Instant now = Instant.now();
-                Messages.State.Builder stateMsgBuilder = Messages.State.newBuilder();
-                stateMsgBuilder.setTimestamp(instantToUnixTime(now));
-                if (loc_summary) {
-                    Messages.LocomotionStateSummary msg = Messages.LocomotionStateSummary.newBuilder()
-                            .setSpeed(locomotionState.getSpeed())
-                            .build();
-                    stateMsgBuilder.setLocSummary(msg);
-                }
-                if (loc_detailed) {
-                    Messages.LocomotionStateDetailed msg = Messages.LocomotionStateDetailed.newBuilder()
-                            .setFrontLeftRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.FRONT_LEFT))
-                            .setFrontRightRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.FRONT_RIGHT))
-                            .setBackLeftRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.BACK_LEFT))
-                            .setBackRightRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.BACK_RIGHT))
-                            .build();
-                    stateMsgBuilder.setLocDetailed(msg);
-                }
-                if (exc_summary) {
-                    Messages.ExcavationStateSummary msg = Messages.ExcavationStateSummary.newBuilder()
-                            .setRpm(excavationState.getConveyorRpm())
-                            .setArmPos(excavationState.getArmPos())
-                            .setDisplacement(excavationState.getTranslationDisplacement())
-                            .setCurrent(excavationState.getConveyorCurrent())
-                            .setArmExtended(excavationState.getArmExtended())
-                            .setTranslationExtended(excavationState.getTranslationExtended())
-                            .setTranslationRetracted(excavationState.getTranslationRetracted())
-                            .build();
-                    stateMsgBuilder.setExcSummary(msg);
-                }
-                if (exc_detailed) {
-                    Messages.ExcavationStateDetailed msg = Messages.ExcavationStateDetailed.newBuilder()
-                            .setRpm(excavationState.getConveyorRpm())
-                            .setArmPos(excavationState.getArmPos())
-                            .setDisplacement(excavationState.getTranslationDisplacement())
-                            .setCurrent(excavationState.getConveyorCurrent())
-                            .setArmLeftExtended(excavationState.getArmExtended(ExcavationState.Side.LEFT))
-                            .setArmRightExtended(excavationState.getArmExtended(ExcavationState.Side.RIGHT))
-                            .setTranslationLeftExtended(excavationState.getTranslationExtended(ExcavationState.Side.LEFT))
-                            .setTranslationRightExtended(excavationState.getTranslationExtended(ExcavationState.Side.RIGHT))
-                            .setTranslationRetracted(excavationState.getTranslationRetracted())
-                            .build();
-                    stateMsgBuilder.setExcDetailed(msg);
-                }
-                if (dep_summary) {
-                    Messages.DepositionStateSummary msg = Messages.DepositionStateSummary.newBuilder()
-                            .setLoad(depositionState.getDumpLoad())
-                            .setDumpExtended(depositionState.getDumpExtended())
-                            .setDumpRetracted(depositionState.getDumpRetracted())
-                            .build();
-                    stateMsgBuilder.setDepSummary(msg);
-                }
-                if (dep_detailed) {
-                    Messages.DepositionStateDetailed msg = Messages.DepositionStateDetailed.newBuilder()
-                            .setLeftLoad(depositionState.getDumpLoad(DepositionState.LoadCell.LEFT))
-                            .setRightLoad(depositionState.getDumpLoad(DepositionState.LoadCell.RIGHT))
-                            .setDumpLeftExtended(depositionState.getDumpExtended(DepositionState.Side.LEFT))
-                            .setDumpRightExtended(depositionState.getDumpExtended(DepositionState.Side.RIGHT))
-                            .setDumpLeftRetracted(depositionState.getDumpRetracted(DepositionState.Side.LEFT))
-                            .setDumpRightRetracted(depositionState.getDumpRetracted(DepositionState.Side.RIGHT))
-                            .build();
-                    stateMsgBuilder.setDepDetailed(msg);
+        /**
+         * @return the sections to send given the current versions, 0 if there is nothing to send
+         */
+        private int sectionsToSend(long[] versions) {
+            if (!onChange) {
+                return sections;
+            }
+            int changed = 0;
+            for (int i = 0; i < NUM_VERSIONS; i++) {
+                if (versions[i] != sentVersions[i]) {
+                    changed |= VERSION_SECTIONS[i];
                 }
-                if(loc_obs_detailed) {
-                	Messages.LocObsStateDetailed msg = Messages.LocObsStateDetailed.newBuilder()
-                			.setLocPosition(locObsState.getLocPosition())
-                			.addAllObstacles(locObsState.getObstacles())
-                			.build();
-                	stateMsgBuilder.setLocObsDetailed(msg);
+            }
+            return sections & changed;
+        }
+
+        /**
+         * @return true if this tick should be skipped to downsample
+         */
+        boolean skipTick() {
+            ticksSinceSent++;
+            if (ticksSinceSent < downsample) {
+                return true;
+            }
+            ticksSinceSent = 0;
+            return false;
+        }
+
+        /**
+         * @return the sections to send while behind. Obstacles are by far the largest section,
+         * so they are held back unless they are all this subscriber asked for.
+         */
+        private int shed(int toSend) {
+            if (downsample > 1 && (sections & ~LOC_OBS_DETAILED) != 0) {
+                return toSend & ~LOC_OBS_DETAILED;
+            }
+            return toSend;
+        }
+
+        /**
+         * Records how many states wait in the subscriber's queue, and downsamples further or less
+         * depending on it
+         * @param depth the number of states waiting, -1 if the queue can not be checked
+         */
+        void probed(int depth) {
+            queueDepth = depth;
+            if (depth < 0) {
+                measurable = false;
+            } else if (depth > BEHIND_DEPTH) {
+                downsample = Math.min(MAX_DOWNSAMPLE, downsample * 2);
+            } else if (depth == 0 && downsample > 1) {
+                downsample /= 2;
+            }
+        }
+
+        /**
+         * Records a state sent
+         */
+        private void sent(int sentSections, long[] versions) {
+            // A subsystem counts as sent only if none of its sections were held back
+            for (int i = 0; i < NUM_VERSIONS; i++) {
+                if ((VERSION_SECTIONS[i] & sections & ~sentSections) == 0) {
+                    sentVersions[i] = versions[i];
                 }
+            }
+            published++;
+            failuresInARow = 0;
+        }
+
+        /**
+         * @return true if this subscriber has failed too many times in a row and should be dropped
+         */
+        private boolean failedToSend() {
+            failed++;
+            failuresInARow++;
+            return failuresInARow >= MAX_FAILURES;
+        }
+    }
+
+    /**
+     * Publishing counters for one subscriber, as of when they were read
+     */
+    public static class SubscriberStats {
+
+        public final String replyKey;
+        public final int intervalMs;
+        // States sent
+        public final long published;
+        // Ticks with no state sent, because of downsampling or the broker blocking publishers
+        public final long skipped;
+        public final long failed;
+        // States waiting in the subscriber's queue when last checked, -1 if it can not be checked
+        public final int queueDepth;
+        // One state sent every this many ticks, more than 1 while the subscriber is behind
+        public final int downsample;
+
+        SubscriberStats(Subscription subscription) {
+            this.replyKey = subscription.returnKey;
+            this.intervalMs = subscription.interval_ms;
+            this.published = subscription.published;
+            this.skipped = subscription.skipped;
+            this.failed = subscription.failed;
+            this.queueDepth = subscription.queueDepth;
+            this.downsample = subscription.downsample;
+        }
+    }
+
+    /**
+     * The subscriptions that share an interval. Each tick builds the state once for each
+     * combination of sections its subscribers asked for and publishes it to all of them.
+     */
+    private class SubscriptionGroup implements Runnable {
+
+        private final int interval_ms;
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private ScheduledFuture<?> future;
+
+        public SubscriptionGroup(int interval_ms) {
+            this.interval_ms = interval_ms;
+        }
+
+        @Override
+        public void run() {
+            Instant now = Instant.now();
+            long[] versions = getVersions();
+            // Usually every subscriber asks for the same sections, so this holds one entry
+            Map<Integer, byte[]> built = new HashMap<>();
+            for (Subscription subscription : subscriptions) {
                 try {
-                    //Not sure how to do this bit properly
-                    StateModule.this.channel.basicPublish(exchangeName, returnKey, null, stateMsgBuilder.build().toByteArray());
-                    Thread.sleep(interval_ms);
+                    // Publishing would block this thread, and every other subscriber with it
+                    if (publishBlocked || subscription.skipTick()) {
+                        subscription.skipped++;
+                        continue;
+                    }
+                    int sections = subscription.shed(subscription.sectionsToSend(versions));
+                    if (sections == 0) {
+                        continue;
+                    }
+                    byte[] state = built.get(sections);
+                    if (state == null) {
+                        state = serializeState(sections, now, versions);
+                        built.put(sections, state);
+                    }
+                    publish(subscription.returnKey, state);
+                    subscription.sent(sections, versions);
                 } catch (IOException e) {
-                    go = false;
                     e.printStackTrace();
-                } catch (InterruptedException e) {
-                    go = false;
+                    if (subscription.failedToSend()) {
+                        System.out.println("Dropping subscription " + subscription.returnKey + " after " + MAX_FAILURES + " failures in a row");
+                        unsubscribe(subscription.returnKey);
+                    }
+                } catch (RuntimeException e) {
+                    // An exception escaping would cancel the timer for the whole group
+                    e.printStackTrace();
                 }
             }
         }
     }
 
+    /**
+     * Serializes a state message from the current state, reusing the sections serialized for the
+     * last snapshot if nothing has changed since
+     * @param sections the sections to include, a mask of the section bits
+     * @param now the timestamp of the message
+     * @param versions the subsystem versions from getVersions(), read before building so a change made
+     *                 while building is picked up next time
+     */
+    private byte[] serializeState(int sections, Instant now, long[] versions) throws IOException {
+        StateSnapshot current = snapshot;
+        if (current == null || !current.isAt(versions[LOC_VERSION], versions[EXC_VERSION], versions[DEP_VERSION], versions[LOC_OBS_VERSION])) {
+            current = new StateSnapshot(versions[LOC_VERSION], versions[EXC_VERSION], versions[DEP_VERSION], versions[LOC_OBS_VERSION]);
+            snapshot = current;
+        }
+        byte[] body = current.getSections(sections, sectionSerializer);
+        // Write the timestamp field and append the cached sections after it
+        UnixTime timestamp = instantToUnixTime(now);
+        int timestampSize = CodedOutputStream.computeMessageSize(Messages.State.TIMESTAMP_FIELD_NUMBER, timestamp);
+        byte[] out = new byte[timestampSize + body.length];
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        output.writeMessage(Messages.State.TIMESTAMP_FIELD_NUMBER, timestamp);
+        output.flush();
+        System.arraycopy(body, 0, out, timestampSize, body.length);
+        return out;
+    }
+
+    /**
+     * @return the current version of each subsystem's state, by version index
+     */
+    private long[] getVersions() {
+        long[] versions = new long[NUM_VERSIONS];
+        versions[LOC_VERSION] = locomotionState.getVersion();
+        versions[EXC_VERSION] = excavationState.getVersion();
+        versions[DEP_VERSION] = depositionState.getVersion();
+        versions[LOC_OBS_VERSION] = locObsState.getVersion();
+        return versions;
+    }
+
+    /**
+     * Builds the sections of a state message from the current state, without the timestamp.
+     * Each section is read consistently from its subsystem's state.
+     * @param sections the sections to include, a mask of the section bits
+     */
+    private Messages.State buildSections(int sections) {
+        Messages.State.Builder stateMsgBuilder = Messages.State.newBuilder();
+        if ((sections & LOC_SUMMARY) != 0) {
+            Messages.LocomotionStateSummary msg = locomotionState.read(() -> Messages.LocomotionStateSummary.newBuilder()
+                        .setSpeed(locomotionState.getSpeed())
+                        .build());
+            stateMsgBuilder.setLocSummary(msg);
+        }
+        if ((sections & LOC_DETAILED) != 0) {
+            Messages.LocomotionStateDetailed msg = locomotionState.read(() -> Messages.LocomotionStateDetailed.newBuilder()
+                        .setFrontLeftRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.FRONT_LEFT))
+                        .setFrontRightRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.FRONT_RIGHT))
+                        .setBackLeftRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.BACK_LEFT))
+                        .setBackRightRpm(locomotionState.getWheelRpm(LocomotionState.Wheel.BACK_RIGHT))
+                        .build());
+            stateMsgBuilder.setLocDetailed(msg);
+        }
+        if ((sections & EXC_SUMMARY) != 0) {
+            Messages.ExcavationStateSummary msg = excavationState.read(() -> Messages.ExcavationStateSummary.newBuilder()
+                        .setRpm(excavationState.getConveyorRpm())
+                        .setArmPos(excavationState.getArmPos())
+                        .setDisplacement(excavationState.getTranslationDisplacement())
+                        .setCurrent(excavationState.getConveyorCurrent())
+                        .setArmExtended(excavationState.getArmExtended())
+                        .setTranslationExtended(excavationState.getTranslationExtended())
+                        .setTranslationRetracted(excavationState.getTranslationRetracted())
+                        .build());
+            stateMsgBuilder.setExcSummary(msg);
+        }
+        if ((sections & EXC_DETAILED) != 0) {
+            Messages.ExcavationStateDetailed msg = excavationState.read(() -> Messages.ExcavationStateDetailed.newBuilder()
+                        .setRpm(excavationState.getConveyorRpm())
+                        .setArmPos(excavationState.getArmPos())
+                        .setDisplacement(excavationState.getTranslationDisplacement())
+                        .setCurrent(excavationState.getConveyorCurrent())
+                        .setArmLeftExtended(excavationState.getArmExtended(ExcavationState.Side.LEFT))
+                        .setArmRightExtended(excavationState.getArmExtended(ExcavationState.Side.RIGHT))
+                        .setTranslationLeftExtended(excavationState.getTranslationExtended(ExcavationState.Side.LEFT))
+                        .setTranslationRightExtended(excavationState.getTranslationExtended(ExcavationState.Side.RIGHT))
+                        .setTranslationRetracted(excavationState.getTranslationRetracted())
+                        .build());
+            stateMsgBuilder.setExcDetailed(msg);
+        }
+        if ((sections & DEP_SUMMARY) != 0) {
+            Messages.DepositionStateSummary msg = depositionState.read(() -> Messages.DepositionStateSummary.newBuilder()
+                        .setLoad(depositionState.getDumpLoad())
+                        .setDumpExtended(depositionState.getDumpExtended())
+                        .setDumpRetracted(depositionState.getDumpRetracted())
+                        .build());
+            stateMsgBuilder.setDepSummary(msg);
+        }
+        if ((sections & DEP_DETAILED) != 0) {
+            Messages.DepositionStateDetailed msg = depositionState.read(() -> Messages.DepositionStateDetailed.newBuilder()
+                        .setLeftLoad(depositionState.getDumpLoad(DepositionState.LoadCell.LEFT))
+                        .setRightLoad(depositionState.getDumpLoad(DepositionState.LoadCell.RIGHT))
+                        .setDumpLeftExtended(depositionState.getDumpExtended(DepositionState.Side.LEFT))
+                        .setDumpRightExtended(depositionState.getDumpExtended(DepositionState.Side.RIGHT))
+                        .setDumpLeftRetracted(depositionState.getDumpRetracted(DepositionState.Side.LEFT))
+                        .setDumpRightRetracted(depositionState.getDumpRetracted(DepositionState.Side.RIGHT))
+                        .build());
+            stateMsgBuilder.setDepDetailed(msg);
+        }
+        if ((sections & LOC_OBS_DETAILED) != 0) {
+            Messages.LocObsStateDetailed msg = Messages.LocObsStateDetailed.newBuilder()
+                    .setLocPosition(locObsState.getLocPosition())
+                    .addAllObstacles(locObsState.getObstacles())
+                    .build();
+            stateMsgBuilder.setLocObsDetailed(msg);
+        }
+        // The required timestamp is added by serializeState
+        return stateMsgBuilder.buildPartial();
+    }
+
     /* Consumer callback class and methods */
+    /**
+     * Applies the body of an update message to the state
+     */
+    private interface UpdateHandler {
+        void handle(byte[] body) throws IOException;
+    }
+
+    /**
+     * Binds every update routing key to its handler, with the wheel or side the
+     * key names already resolved, so routing an update is a single lookup
+     */
+    private Map<String, UpdateHandler> createUpdateHandlers() {
+        Map<String, UpdateHandler> handlers = new HashMap<>();
+        // Several updates from one HCI cycle
+        handlers.put("sensor.batch", body -> {
+            SensorBatch batch = SensorBatch.parseFrom(body);
+            for (SensorBatchEntry entry : batch.getEntriesList()) {
+                routeUpdate(entry.getRoutingKey(), entry.getBody().toByteArray());
+            }
+        });
+        for (LocomotionState.Wheel wheel : LocomotionState.Wheel.values()) {
+            String prefix = "sensor.locomotion." + wheel.name().toLowerCase();
+            handlers.put(prefix + ".wheel_rpm", body -> handleWheelRpmUpdate(wheel, body));
+        }
+        handlers.put("sensor.excavation.conveyor_rpm", this::handleConveyorRpmUpdate);
+        handlers.put("sensor.excavation.conveyor_translation_displacement", this::handleConveyorTranslationPosUpdate);
+        handlers.put("sensor.excavation.arm_pos", this::handleArmPosUpdate);
+        handlers.put("sensor.excavation.conveyor_current", this::handleConveyorCurrentUpdate);
+        handlers.put("sensor.excavation.conveyor_translation_limit_retracted", this::handleConveyorTranslationLimitRetractedUpdate);
+        for (ExcavationState.Side side : ExcavationState.Side.values()) {
+            String suffix = "." + side.name().toLowerCase();
+            handlers.put("sensor.excavation.arm_limit_extended" + suffix, body -> handleArmLimitExtendedUpdate(side, body));
+            handlers.put("sensor.excavation.conveyor_translation_limit_extended" + suffix, body -> handleConveyorTranslationLimitExtendedUpdate(side, body));
+        }
+        for (DepositionState.LoadCell cell : DepositionState.LoadCell.values()) {
+            handlers.put("sensor.deposition.load." + cell.name().toLowerCase(), body -> handleDumpLoadUpdate(cell, body));
+        }
+        for (DepositionState.Side side : DepositionState.Side.values()) {
+            String suffix = "." + side.name().toLowerCase();
+            handlers.put("sensor.deposition.hopper_limit_extended" + suffix, body -> handleDumpLimitExtendedUpdate(side, body));
+            handlers.put("sensor.deposition.hopper_limit_retracted" + suffix, body -> handleDumpLimitRetractedUpdate(side, body));
+        }
+        handlers.put("loc.post", body -> {
+            System.out.println("localization data sent");
+            handleLocalizationUpdate(body);
+        });
+        handlers.put("loc.obstacle.position", this::handleObstacleUpdate);
+        return handlers;
+    }
+
+    private void routeUpdate(String routingKey, byte[] body) throws IOException {
+        UpdateHandler handler = updateHandlers.get(routingKey);
+        if (handler == null) {
+            System.out.println("Bad routing key for update: " + routingKey);
+            return;
+        }
+        handler.handle(body);
+    }
+
     private class UpdateConsumer extends DefaultConsumer {
         
         public UpdateConsumer(Channel channel) {
@@ -160,147 +487,12 @@ public class StateModule {
 
         @Override
         public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-            String routingKey = envelope.getRoutingKey();
-            String[] keys = routingKey.split("\\.");
-            if (keys.length < 2) {
-                return;
-            }
-            String typeOfSensor = keys[1];
-
-            if(typeOfSensor.equals("locomotion")){ //this is a locomotion message
-                if (keys.length < 4) {
-                    System.out.println("Locomotion sensor update routing key requires 4 elements");
-                    return;
-                }
-                String wheelString = keys[2];
-                String sensorString = keys[3];
-                LocomotionState.Wheel wheel;
-                if (wheelString.equals("front_left")) {
-                    wheel = LocomotionState.Wheel.FRONT_LEFT;
-                } else if (wheelString.equals("front_right")) {
-                    wheel = LocomotionState.Wheel.FRONT_RIGHT;
-                } else if (wheelString.equals("back_left")) {
-                    wheel = LocomotionState.Wheel.BACK_LEFT;
-                } else if (wheelString.equals("back_right")) {
-                    wheel = LocomotionState.Wheel.BACK_RIGHT;
-                } else {
-                    System.out.println("Bad wheel string in routing key");
-                    return;
-                }
-                if (sensorString.equals("wheel_rpm")) {
-                    handleWheelRpmUpdate(wheel, body);
-                } else {
-                    System.out.println("Bad sensor string in routing key: " + sensorString);
-                    return;
-                }
-            }
-            else if(typeOfSensor.equals("excavation")){ //excavation message
-                if (keys.length < 3) {
-                    System.out.println("Excavation sensor update routing key requires 3 elements");
-                    return;
-                }
-                String sensorString = keys[2];
-
-                if (sensorString.equals("conveyor_rpm")) {
-                    handleConveyorRpmUpdate(body);
-                } else if (sensorString.equals("conveyor_translation_displacement")) {
-                    handleConveyorTranslationPosUpdate(body);
-                }  else if (sensorString.equals("arm_pos")) {
-                    handleArmPosUpdate(body);
-                } else if (sensorString.equals("conveyor_current")){
-                    handleConveyorCurrentUpdate(body);
-                } else if (sensorString.equals("arm_limit_extended")) {
-                    String sideString = keys[3];
-                    ExcavationState.Side side;
-                    if (sideString.equals("left")) {
-                        side = ExcavationState.Side.LEFT;
-                    } else if (sideString.equals("right")) {
-                        side = ExcavationState.Side.RIGHT;
-                    } else {
-                        System.out.println("Bad side string in routing key");
-                        return;
-                    }
-                    handleArmLimitExtendedUpdate(side, body);
-                } else if (sensorString.equals("conveyor_translation_limit_extended")) {
-                    String sideString = keys[3];
-                    ExcavationState.Side side;
-                    if (sideString.equals("left")) {
-                        side = ExcavationState.Side.LEFT;
-                    } else if (sideString.equals("right")) {
-                        side = ExcavationState.Side.RIGHT;
-                    } else {
-                        System.out.println("Bad side string in routing key");
-                        return;
-                    }
-                    handleConveyorTranslationLimitExtendedUpdate(side, body);
-                } else if (sensorString.equals("conveyor_translation_limit_retracted")) {
-                    handleConveyorTranslationLimitRetractedUpdate(body);
-                } else {
-                    System.out.println("Bad sensor string in routing key: " + sensorString);
-                    return;
-                }
-            }
-            else if(typeOfSensor.equals("deposition")){ //deposition message
-                String sensorString = keys[2];
-                
-                if (sensorString.equals("load")) {
-                    String sideString = keys[3];
-                    DepositionState.LoadCell side;
-                    if (sideString.equals("left")) {
-                        side = DepositionState.LoadCell.LEFT;
-                    } else if (sideString.equals("right")) {
-                        side = DepositionState.LoadCell.RIGHT;
-                    } else {
-                        System.out.println("Bad side string in routing key");
-                        return;
-                    }
-                    handleDumpLoadUpdate(side, body);
-                }else if (sensorString.equals("hopper_limit_extended")) {
-                    String sideString = keys[3];
-                    DepositionState.Side side;
-                    if (sideString.equals("left")) {
-                        side = DepositionState.Side.LEFT;
-                    } else if (sideString.equals("right")) {
-                        side = DepositionState.Side.RIGHT;
-                    } else {
-                        System.out.println("Bad side string in routing key");
-                        return;
-                    }
-                    handleDumpLimitExtendedUpdate(side, body);
-                } else if (sensorString.equals("hopper_limit_retracted")) {
-                    String sideString = keys[3];
-                    DepositionState.Side side;
-                    if (sideString.equals("left")) {
-                        side = DepositionState.Side.LEFT;
-                    } else if (sideString.equals("right")) {
-                        side = DepositionState.Side.RIGHT;
-                    } else {
-                        System.out.println("Bad side string in routing key");
-                        return;
-                    }
-                    handleDumpLimitRetractedUpdate(side, body);
-                } else {
-                    System.out.println("Bad sensor string in routing key: " + sensorString);
-                }
-            } else if(typeOfSensor.equals("post")){
-            	System.out.println("localization data sent");
-                handleLocalizationUpdate(body);
-            } else if(typeOfSensor.equals("obstacle")){
-                if (keys.length < 3) {
-                    System.out.println("Obstacle update routing key requires 3 elements");
-                    return;
-                }
-                String sensorString = keys[2];
-                if(sensorString.equals("position")){
-                    handleObstacleUpdate(body);
-                } else {
-                    System.out.println("Bad sensor string in routing key: " + sensorString);
-                }
-            } else { //oops
-                System.out.println("Bad subsystem string in routing key");
-                return;
+            try {
+                routeUpdate(envelope.getRoutingKey(), body);
+            } finally {
+                // Frees a slot in the prefetch window for the next update
+                getChannel().basicAck(envelope.getDeliveryTag(), false);
             }
-
         }
     }
 
@@ -315,27 +507,18 @@ public class StateModule {
             Messages.StateSubscribe msg = Messages.StateSubscribe.parseFrom(body);
             float interval = msg.getInterval();
             int interval_ms = (int)(interval * 1000);
-            boolean loc_summary = true;
-            boolean loc_detailed = true;
-            boolean exc_summary = true;
-            boolean exc_detailed = true;
-            boolean dep_summary = true;
-            boolean dep_detailed = true;
-            boolean loc_obs_detailed = true;
+            int sections = 0;
+            if (msg.getLocomotionSummary()) sections |= LOC_SUMMARY;
+            if (msg.getLocomotionDetailed()) sections |= LOC_DETAILED;
+            if (msg.getExcavationSummary()) sections |= EXC_SUMMARY;
+            if (msg.getExcavationDetailed()) sections |= EXC_DETAILED;
+            if (msg.getDepositionSummary()) sections |= DEP_SUMMARY;
+            if (msg.getDepositionDetailed()) sections |= DEP_DETAILED;
+            if (msg.getLocObsDetailed()) sections |= LOC_OBS_DETAILED;
+            boolean onChange = msg.getOnChange();
             String replyKey = msg.getReplyKey();
-            Thread t = new Thread(new SubscriptionRunnable(
-                    replyKey,
-                    interval_ms,
-                    loc_summary,
-                    loc_detailed,
-                    exc_summary,
-                    exc_detailed,
-                    dep_summary,
-                    dep_detailed,
-                    loc_obs_detailed), replyKey);
-            subscriptionThreads.add(t, -1);
-            t.start();
-            System.out.println("Start subscription thread with interval = " + interval);
+            subscribe(new Subscription(replyKey, Math.max(MIN_INTERVAL_MS, interval_ms), sections, onChange));
+            System.out.println("Start subscription with interval = " + interval + (onChange ? ", on change" : ""));
         }
     }
     
@@ -349,22 +532,46 @@ public class StateModule {
     	public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
     		Messages.StateSubscribe msg = Messages.StateSubscribe.parseFrom(body);
     		String replyKey = msg.getReplyKey();
-    		int index = subscriptionThreads.indexOf(replyKey, -1);
-            try{
-    		  Thread t = subscriptionThreads.get(index);
-    		  subscriptionThreads.remove(t);
-    		  t.interrupt();
-        		try {
-	   			t.join();
-		      	} catch (InterruptedException e) {
-			     	// TODO Auto-generated catch block
-			     	e.printStackTrace();
-                 }
-			} catch (ArrayIndexOutOfBoundsException e1) {
-                System.out.println("The Thread you are trying to terminate does not exist.");
+    		if (!unsubscribe(replyKey)) {
+                System.out.println("The subscription you are trying to terminate does not exist.");
             }
     	}
     }
+
+    /**
+     * Adds a subscription to the group for its interval, replacing any subscription with the same reply key
+     */
+    private synchronized void subscribe(Subscription subscription) {
+        unsubscribe(subscription.returnKey);
+        subscriptions.put(subscription.returnKey, subscription);
+        SubscriptionGroup group = subscriptionGroups.get(subscription.interval_ms);
+        if (group == null) {
+            group = new SubscriptionGroup(subscription.interval_ms);
+            group.subscriptions.add(subscription);
+            group.future = scheduler.scheduleAtFixedRate(group, 0, subscription.interval_ms, TimeUnit.MILLISECONDS);
+            subscriptionGroups.put(subscription.interval_ms, group);
+        } else {
+            group.subscriptions.add(subscription);
+        }
+    }
+
+    /**
+     * Removes a subscription, and stops its group's timer if it was the last one in the group
+     * @return false if there was no subscription with the reply key
+     */
+    private synchronized boolean unsubscribe(String replyKey) {
+        Subscription subscription = subscriptions.remove(replyKey);
+        if (subscription == null) {
+            return false;
+        }
+        SubscriptionGroup group = subscriptionGroups.get(subscription.interval_ms);
+        group.subscriptions.remove(subscription);
+        if (group.subscriptions.isEmpty()) {
+            group.future.cancel(false);
+            subscriptionGroups.remove(subscription.interval_ms);
+        }
+        return true;
+    }
     
     private void handleWheelRpmUpdate(LocomotionState.Wheel wheel, byte[] body) throws IOException {
         RpmUpdate message = RpmUpdate.parseFrom(body);
@@ -505,85 +712,42 @@ public class StateModule {
     	}
     }
     
-    /*Hash Table for SubscriptionThreads*/
-    private class SubscriptionThreads{
-
-    	private Thread[] threads;
-    	private int numItems;
-    	
-    	public SubscriptionThreads(){
-    		threads = new Thread[4096];
-    		numItems = 0;
-    	}
-    	
-    	//Generates hashcode with given replyKey of the thread
-    	public int hashCode(String replyKey){
-    		int hashCode = 0;
-    		int power = 0;
-    		for(int index = 0; index < replyKey.length(); index++){
-    			hashCode = hashCode + ((replyKey.charAt(index) << power) - replyKey.charAt(index));
-    		}
-    		return hashCode % threads.length;
-    	}
-    	
-    	public synchronized void add(Thread t, int currentIndex){
-    		if(currentIndex == -1)
-    			currentIndex = hashCode(t.getName());
-    		if(threads[currentIndex] == null || threads[currentIndex].getName().equals("removed")){
-    			threads[currentIndex] = t;
-    			numItems++;
-    			if(((double)numItems/(double)threads.length) > 0.75)
-    				rehash();
-    		}
-    		else if(!threads[currentIndex].getName().equals(t.getName())){
-    			currentIndex = (currentIndex + 7) % threads.length;
-    			add(t, currentIndex);
-    		} 
-    		else
-    			return;
-    	}
-    	
-    	public synchronized Thread get(int index){
-    		return threads[index];
-    	}
-    	
-    	public synchronized int indexOf(String replyKey, int currentIndex){
-    		if(currentIndex == -1)
-    			currentIndex = hashCode(replyKey);
-    		if(threads[currentIndex] == null)
-    			return -1; 
-    		else if(!threads[currentIndex].getName().equals(replyKey)){
-    			currentIndex = (currentIndex + 7) % threads.length; // second hash function with stride of 7.
-    			return indexOf(replyKey, currentIndex);
-    		} 
-    		else
-    			return currentIndex;
-    	}
-    	
-    	public synchronized void remove(Thread t){
-    		int index = indexOf(t.getName(), -1);
-    		threads[index] = new Thread("removed");
-    	}
-    	
-    	public synchronized void rehash(){
-    		Thread[] copy = threads.clone();
-    		threads = new Thread[copy.length*2];
-    		for(int index = 0; index < copy.length; index++){
-    			if(copy[index] != null && !copy[index].getName().equals("removed"))
-    				add(copy[index], hashCode(copy[index].getName())); 
-    		}
-    	}
-    }
-    
     /* Data Members */
     private LocomotionState locomotionState;
     private ExcavationState excavationState;
     private DepositionState depositionState;
     private LocalizationObstacleState locObsState;
     private String exchangeName;
+    // Update routing key -> handler, never changed after construction
+    private final Map<String, UpdateHandler> updateHandlers = createUpdateHandlers();
     private Connection connection;
     private Channel channel;
-    private SubscriptionThreads subscriptionThreads = new SubscriptionThreads();
+    // Declares and checks subscribers' queues, only used by the prober
+    private Channel probeChannel;
+    private final Object publishLock = new Object();
+    private volatile boolean publishBlocked = false;
+    // Runs the consumers of every channel
+    private ExecutorService consumerExecutor;
+    private int updatePrefetch = DEFAULT_UPDATE_PREFETCH;
+    // Active subscriptions by reply key
+    private final ConcurrentHashMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    // Subscriptions grouped by interval, each group runs on one timer
+    private final ConcurrentHashMap<Integer, SubscriptionGroup> subscriptionGroups = new ConcurrentHashMap<>();
+    // Serialized sections of the state as of the last change, shared by all subscriptions
+    private volatile StateSnapshot snapshot;
+    private final IntFunction<byte[]> sectionSerializer = mask -> buildSections(mask).toByteArray();
+    // One thread publishes state for every subscription
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "State subscriptions");
+        t.setDaemon(true);
+        return t;
+    });
+    // Checks how many states wait for each subscriber, so the scheduler never waits on the broker
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "State subscriber queues");
+        t.setDaemon(true);
+        return t;
+    });
     
     public StateModule(LocomotionState locState, ExcavationState excState, DepositionState depState, LocalizationObstacleState locObsState) {
         this(locState, excState, depState, locObsState, "amq.topic");
@@ -609,28 +773,140 @@ public class StateModule {
         faultBuilder.setFaultCode(faultCode);
         faultBuilder.setTimestamp(instantToUnixTime(time));
         Fault message = faultBuilder.build();
-        channel.basicPublish(exchangeName, "fault", null, message.toByteArray());
+        publish("fault", message.toByteArray());
+    }
+
+    /**
+     * Publishes on the shared channel. Update consumers raise faults from several threads while
+     * the scheduler publishes state, and a channel must not publish from two threads at once.
+     */
+    private void publish(String routingKey, byte[] body) throws IOException {
+        synchronized (publishLock) {
+            channel.basicPublish(exchangeName, routingKey, null, body);
+        }
+    }
+
+    /**
+     * Declares the queue of each new subscriber, then checks how many states wait in each queue
+     * and sets how much to downsample from it. Only the prober calls this.
+     */
+    private void probeQueues() {
+        for (Subscription subscription : subscriptions.values()) {
+            if (!subscription.measurable) {
+                continue;
+            }
+            try {
+                if (!subscription.declared) {
+                    declareQueue(subscription.returnKey);
+                    subscription.declared = true;
+                }
+                subscription.probed(probeChannel().queueDeclarePassive(subscription.returnKey).getMessageCount());
+            } catch (IOException e) {
+                // Exclusive to the subscriber's connection
+                subscription.probed(-1);
+            } catch (RuntimeException e) {
+                // An exception escaping would cancel the prober's timer
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Declares the queue named after a reply key, the same way its subscriber does, and binds it
+     * to the reply key
+     */
+    private void declareQueue(String replyKey) throws IOException {
+        try {
+            probeChannel().queueDeclare(replyKey, false, false, false, null);
+        } catch (IOException e) {
+            // The subscriber declared it otherwise, so it is checked as it is
+        }
+        probeChannel().queueBind(replyKey, exchangeName, replyKey);
+    }
+
+    /**
+     * @return the channel for the prober. The broker closes it whenever a queue can not be
+     * declared or checked, so it is opened again as needed.
+     */
+    private Channel probeChannel() throws IOException {
+        if (probeChannel == null || !probeChannel.isOpen()) {
+            probeChannel = connection.createChannel();
+        }
+        return probeChannel;
+    }
+
+    /**
+     * Reads the optional settings in a config file. state-update-prefetch is how many updates
+     * each update channel may have delivered but not yet handled. Takes effect on start.
+     */
+    public void getVarsFromConfigFile(String path) throws RuntimeException, IOException {
+        Map<String, Object> config;
+        try (InputStream input = new FileInputStream(path)) {
+            config = (Map<String, Object>) new Yaml().load(input);
+        }
+        // YAML parses it as a number
+        Object prefetch = config.get("state-update-prefetch");
+        if (prefetch != null) {
+            updatePrefetch = Integer.parseInt(prefetch.toString());
+            if (updatePrefetch <= 0) {
+                throw new RuntimeException("Config file state-update-prefetch must be positive");
+            }
+        }
+    }
+
+    /**
+     * @return publishing counters for each subscriber
+     */
+    public List<SubscriberStats> getSubscriberStats() {
+        List<SubscriberStats> stats = new ArrayList<>();
+        for (Subscription subscription : subscriptions.values()) {
+            stats.add(new SubscriberStats(subscription));
+        }
+        return stats;
+    }
+
+    /**
+     * @return true while the broker is blocking publishers, during which no state is sent
+     */
+    public boolean isPublishBlocked() {
+        return publishBlocked;
     }
     
     public void runWithExceptions() throws IOException, TimeoutException {
         // Setup connection
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
-        connection = factory.newConnection();
-        this.channel = connection.createChannel();
+        // Deliveries on one channel are handled in order, but different channels are handled on
+        // different threads of this pool, so it has a thread for each channel we consume on
+        consumerExecutor = Executors.newFixedThreadPool(UPDATE_BINDINGS.length + 1);
+        connection = factory.newConnection(consumerExecutor);
+        // The broker blocks publishers when it runs low on memory or disk
+        connection.addBlockedListener(new BlockedListener() {
+            @Override
+            public void handleBlocked(String reason) throws IOException {
+                System.out.println("Broker blocked publishing: " + reason);
+                publishBlocked = true;
+            }
 
-        // Subscribe to sensor updates
-        String queueName = channel.queueDeclare().getQueue();
-        channel.queueBind(queueName, exchangeName, "sensor.#");
-        this.channel.basicConsume(queueName, true, new UpdateConsumer(channel));
+            @Override
+            public void handleUnblocked() throws IOException {
+                System.out.println("Broker unblocked publishing");
+                publishBlocked = false;
+            }
+        });
+        this.channel = connection.createChannel();
 
-        // Subscribe to sensor updates
-        queueName = channel.queueDeclare().getQueue();
-        channel.queueBind(queueName, exchangeName, "loc.#");
-        this.channel.basicConsume(queueName, true, new UpdateConsumer(channel));
+        // Subscribe to sensor updates, each subsystem on its own channel
+        for (String binding : UPDATE_BINDINGS) {
+            Channel updateChannel = connection.createChannel();
+            updateChannel.basicQos(updatePrefetch);
+            String queueName = updateChannel.queueDeclare().getQueue();
+            updateChannel.queueBind(queueName, exchangeName, binding);
+            updateChannel.basicConsume(queueName, false, new UpdateConsumer(updateChannel));
+        }
 
         // Listen for requests to subscribe to state updates
-        queueName = channel.queueDeclare().getQueue();
+        String queueName = channel.queueDeclare().getQueue();
         channel.queueBind(queueName, exchangeName, "state.subscribe");
         this.channel.basicConsume(queueName, true, new RequestConsumer(channel));
         
@@ -638,6 +914,8 @@ public class StateModule {
         queueName = channel.queueDeclare().getQueue();
         channel.queueBind(queueName, exchangeName, "state.unsubscribe");
         this.channel.basicConsume(queueName, true, new UnsubscriptionRequest(channel));
+
+        prober.scheduleWithFixedDelay(this::probeQueues, PROBE_INTERVAL_MS, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     public void start() {
@@ -653,14 +931,14 @@ public class StateModule {
     }
 
     public void stop() throws IOException, TimeoutException, InterruptedException {
-        for (Thread t : subscriptionThreads.threads) {
-            t.interrupt();
-        }
-        for (Thread t : subscriptionThreads.threads) {
-            t.join();
-        }
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        prober.shutdownNow();
+        prober.awaitTermination(1, TimeUnit.SECONDS);
         channel.close();
+        // Closes the update channels too
         connection.close();
+        consumerExecutor.shutdown();
     }
     
     public static void main(String[] args) {
@@ -669,6 +947,13 @@ public class StateModule {
         DepositionState depState = new DepositionState();
         LocalizationObstacleState locObsState = new LocalizationObstacleState();
         StateModule module = new StateModule(locState, excState, depState, locObsState);
+        if (new File(CONFIG_PATH).exists()) {
+            try {
+                module.getVarsFromConfigFile(CONFIG_PATH);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         module.start();
     }
 }
\ No newline at end of file
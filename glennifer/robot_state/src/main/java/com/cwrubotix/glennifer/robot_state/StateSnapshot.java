@@ -0,0 +1,54 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * The serialized sections of a Messages.State, cached for one version of each subsystem's state.
+ * A StateSnapshot never changes once the versions it was taken at are out of date; a new one is
+ * taken instead, so subscribers polling an idle robot reuse the same bytes without rebuilding them.
+ *
+ * The bytes for each section mask hold only the optional sections of the message. The required
+ * timestamp is written in front of them for each publication (protobuf parses concatenated fields
+ * as one message), so a cached snapshot still goes out with the time it was sent.
+ */
+class StateSnapshot {
+
+    private final long locomotionVersion;
+    private final long excavationVersion;
+    private final long depositionVersion;
+    private final long locObsVersion;
+    // Section mask -> serialized sections
+    private final ConcurrentHashMap<Integer, byte[]> sections = new ConcurrentHashMap<>();
+
+    StateSnapshot(long locomotionVersion, long excavationVersion, long depositionVersion, long locObsVersion) {
+        this.locomotionVersion = locomotionVersion;
+        this.excavationVersion = excavationVersion;
+        this.depositionVersion = depositionVersion;
+        this.locObsVersion = locObsVersion;
+    }
+
+    /**
+     * @return true if this snapshot was taken at these versions
+     */
+    boolean isAt(long locomotionVersion, long excavationVersion, long depositionVersion, long locObsVersion) {
+        return this.locomotionVersion == locomotionVersion
+                && this.excavationVersion == excavationVersion
+                && this.depositionVersion == depositionVersion
+                && this.locObsVersion == locObsVersion;
+    }
+
+    /**
+     * Gets the serialized sections for a mask, serializing them the first time they are asked for
+     * @param mask the sections, a mask of the StateModule section bits
+     * @param build serializes the sections for a mask
+     */
+    byte[] getSections(int mask, IntFunction<byte[]> build) {
+        byte[] bytes = sections.get(mask);
+        if (bytes == null) {
+            bytes = build.apply(mask);
+            sections.put(mask, bytes);
+        }
+        return bytes;
+    }
+}
@@ -35,9 +35,10 @@ public class SubscriptionTestMain {
             Connection connection = factory.newConnection();
             Channel channel = connection.createChannel();
 
-            // Create queue
+            // Create queue, named after the reply key so the module can see if it falls behind
             channel.exchangeDeclare("amq.topic", "topic", true);
-            String queueName = channel.queueDeclare().getQueue();
+            String queueName = "subscriptionTest";
+            channel.queueDeclare(queueName, false, false, false, null);
             channel.queueBind(queueName, "amq.topic", queueName);
 
             // Queue is known to be empty
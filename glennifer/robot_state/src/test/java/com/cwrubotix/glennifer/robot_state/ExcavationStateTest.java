@@ -58,4 +58,19 @@ public class ExcavationStateTest {
         assertFalse(instance.getArmExtended(ExcavationState.Side.LEFT));
         assertFalse(instance.getArmExtended());
     }
+
+    @Test
+    public void testOutOfOrderUpdate() throws Exception {
+        Instant time = Instant.now();
+        ExcavationState instance = new ExcavationState();
+        instance.updateArmPos(2.7F, time);
+        try {
+            instance.updateArmPos(3.1F, time.minusSeconds(1));
+            fail("Expected an out of order fault");
+        } catch (RobotFaultException e) {
+            assertEquals(RobotFaultException.OUT_OF_ORDER_UPDATE, e.getFaultCode());
+        }
+        assertEquals(2.7F, instance.getArmPos(), 0);
+        assertEquals(time, instance.getArmPosHistory().getLastUpdated());
+    }
 }
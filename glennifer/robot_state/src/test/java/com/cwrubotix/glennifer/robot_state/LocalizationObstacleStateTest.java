@@ -0,0 +1,179 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import java.time.Instant;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.cwrubotix.glennifer.Messages.LocalizationPosition;
+import com.cwrubotix.glennifer.Messages.ObstaclePosition;
+
+public class LocalizationObstacleStateTest {
+
+    public LocalizationObstacleStateTest() { }
+
+    private static ObstaclePosition obstacle(float x, float y, float diameter) {
+        return ObstaclePosition.newBuilder()
+                .setXPosition(x)
+                .setYPosition(y)
+                .setZPosition(0)
+                .setDiameter(diameter)
+                .build();
+    }
+
+    // Enough detections to confirm a track
+    private static void detect(LocalizationObstacleState instance, ObstaclePosition obstacle, Instant time) throws Exception {
+        instance.addObstacle(obstacle, time);
+        instance.addObstacle(obstacle, time);
+    }
+
+    /**
+     * Test of addObstacle method, of class LocalizationObstacleState.
+     */
+    @Test
+    public void testObstacleStoredInArenaCoordinates() throws Exception {
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        instance.updateLocalizationPosition(LocalizationPosition.newBuilder()
+                .setXPosition(0.5F)
+                .setYPosition(1)
+                .setBearingAngle((float) (Math.PI / 2))
+                .build());
+        // 2 m straight ahead of the robot
+        detect(instance, obstacle(2, 0, 0.3F), Instant.now());
+        List<ObstaclePosition> obstacles = instance.getObstacles();
+        assertEquals(1, obstacles.size());
+        assertEquals(0.5F, obstacles.get(0).getXPosition(), 1e-5);
+        assertEquals(3, obstacles.get(0).getYPosition(), 1e-5);
+    }
+
+    @Test
+    public void testSingleDetectionNotPublished() throws Exception {
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        long version = instance.getVersion();
+        instance.addObstacle(obstacle(1, 1, 0.3F));
+        assertEquals(0, instance.getObstacles().size());
+        assertNull(instance.getNearestObstacle(1, 1));
+        assertEquals(version, instance.getVersion());
+        instance.addObstacle(obstacle(1, 1, 0.3F));
+        assertEquals(1, instance.getObstacles().size());
+        assertNotEquals(version, instance.getVersion());
+    }
+
+    @Test
+    public void testDetectionsFused() throws Exception {
+        Instant time = Instant.now();
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        instance.addObstacle(obstacle(1, 1, 0.3F), time);
+        instance.addObstacle(obstacle(1.2F, 0.9F, 0.4F), time);
+        List<ObstaclePosition> obstacles = instance.getObstacles();
+        assertEquals(1, obstacles.size());
+        assertEquals(1.1F, obstacles.get(0).getXPosition(), 1e-5);
+        assertEquals(0.95F, obstacles.get(0).getYPosition(), 1e-5);
+        assertEquals(0.35F, obstacles.get(0).getDiameter(), 1e-5);
+        // Outside its diameter, so a different obstacle
+        detect(instance, obstacle(1.5F, 1, 0.3F), time);
+        assertEquals(2, instance.getObstacles().size());
+    }
+
+    @Test
+    public void testSmallShiftNotRepublished() throws Exception {
+        Instant time = Instant.now();
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        detect(instance, obstacle(1, 1, 0.3F), time);
+        long version = instance.getVersion();
+        ObstaclePosition published = instance.getObstacles().get(0);
+        instance.addObstacle(obstacle(1.03F, 1, 0.3F), time);
+        assertEquals(version, instance.getVersion());
+        assertSame(published, instance.getObstacles().get(0));
+        // Pulls the mean more than PUBLISH_SHIFT away
+        instance.addObstacle(obstacle(1.25F, 1, 0.3F), time);
+        assertNotEquals(version, instance.getVersion());
+        assertEquals(1.07F, instance.getObstacles().get(0).getXPosition(), 1e-5);
+    }
+
+    @Test
+    public void testUnseenObstacleDecays() throws Exception {
+        Instant time = Instant.now();
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        detect(instance, obstacle(1, 1, 0.3F), time);
+        // A false detection, never confirmed
+        instance.addObstacle(obstacle(-1, 5, 0.3F), time);
+        assertEquals(1, instance.getObstacles().size());
+        // Still there shortly after
+        detect(instance, obstacle(0, 3, 0.3F), time.plusSeconds(10));
+        assertEquals(2, instance.getObstacles().size());
+        // Long after, only the obstacle seen most recently is left
+        long version = instance.getVersion();
+        instance.addObstacle(obstacle(0, 3, 0.3F), time.plusSeconds(60));
+        assertEquals(1, instance.getObstacles().size());
+        assertEquals(3, instance.getObstacles().get(0).getYPosition(), 1e-5);
+        assertNotEquals(version, instance.getVersion());
+        // The false detection was dropped too, so seeing it again starts over
+        instance.addObstacle(obstacle(-1, 5, 0.3F), time.plusSeconds(60));
+        assertEquals(1, instance.getObstacles().size());
+    }
+
+    @Test
+    public void testUnseenObstacleDecaysWithoutDetections() throws Exception {
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        // Seen long enough ago to have decayed away, and nothing detected since
+        detect(instance, obstacle(1, 1, 0.3F), Instant.now().minusSeconds(600));
+        assertEquals(0, instance.getObstacles().size());
+        assertNull(instance.getNearestObstacle(1, 1));
+        // Seen just now, so still there
+        detect(instance, obstacle(1, 3, 0.3F), Instant.now());
+        assertEquals(1, instance.getObstacles().size());
+    }
+
+    @Test
+    public void testObstaclesSnapshotDoesNotChange() throws Exception {
+        Instant time = Instant.now();
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        detect(instance, obstacle(1, 1, 0.3F), time);
+        List<ObstaclePosition> snapshot = instance.getObstacles();
+        detect(instance, obstacle(1, 3, 0.3F), time);
+        assertEquals(1, snapshot.size());
+        assertEquals(2, instance.getObstacles().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testObstaclesCanNotBeModified() throws Exception {
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        detect(instance, obstacle(1, 1, 0.3F), Instant.now());
+        instance.getObstacles().clear();
+    }
+
+    /**
+     * Test of getNearestObstacle method, of class LocalizationObstacleState.
+     */
+    @Test
+    public void testNearestObstacle() throws Exception {
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        Instant time = Instant.now();
+        assertNull(instance.getNearestObstacle(0, 0));
+        // Robot at the origin facing +x, so relative and arena coordinates match
+        detect(instance, obstacle(1, 1, 0.3F), time);
+        detect(instance, obstacle(-1.5F, 6, 0.3F), time);
+        detect(instance, obstacle(0.2F, 3, 0.3F), time);
+        assertEquals(3, instance.getNearestObstacle(0, 3.2F).getYPosition(), 1e-5);
+        assertEquals(6, instance.getNearestObstacle(-1.8F, 7.3F).getYPosition(), 1e-5);
+        assertEquals(1, instance.getNearestObstacle(1, 0).getYPosition(), 1e-5);
+        // Outside the arena still finds the nearest one
+        assertEquals(6, instance.getNearestObstacle(-10, 20).getYPosition(), 1e-5);
+    }
+
+    @Test
+    public void testNearestObstacleAcrossCellBoundary() throws Exception {
+        LocalizationObstacleState instance = new LocalizationObstacleState();
+        Instant time = Instant.now();
+        // Cells are 0.5 m from x = -1.89, so -0.9 is just past the boundary at -0.89
+        // from -0.87, and -1.35 shares its cell
+        detect(instance, obstacle(-1.35F, 1, 0.3F), time);
+        detect(instance, obstacle(-0.87F, 1, 0.3F), time);
+        assertEquals(-0.87F, instance.getNearestObstacle(-0.9F, 1).getXPosition(), 1e-5);
+        // Past the wall the nearest is still measured from the point itself
+        detect(instance, obstacle(1.6F, 4, 0.3F), time);
+        detect(instance, obstacle(1.7F, 2.9F, 0.3F), time);
+        assertEquals(2.9F, instance.getNearestObstacle(3, 3).getYPosition(), 1e-5);
+    }
+}
@@ -0,0 +1,96 @@
+package com.cwrubotix.glennifer.robot_state;
+
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SensorHistoryTest {
+
+    public SensorHistoryTest() { }
+
+    /**
+     * Test of record, getValue and getTime methods, of class SensorHistory.
+     */
+    @Test
+    public void testRecordKeepsNewestReadings() throws Exception {
+        Instant start = Instant.ofEpochSecond(1000, 250);
+        SensorHistory instance = new SensorHistory(3);
+        assertEquals(0, instance.size());
+        assertNull(instance.getLastUpdated());
+        for (int i = 0; i < 5; i++) {
+            instance.record(i, start.plusMillis(i * 10));
+        }
+        assertEquals(3, instance.size());
+        assertEquals(4, instance.getValue(0), 0);
+        assertEquals(2, instance.getValue(2), 0);
+        assertEquals(start.plusMillis(40), instance.getLastUpdated());
+        assertEquals(start.plusMillis(20), instance.getTime(2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetValueBeyondWindow() throws Exception {
+        SensorHistory instance = new SensorHistory(3);
+        instance.record(1, Instant.now());
+        instance.getValue(1);
+    }
+
+    /**
+     * Test of out of order detection in the record method, of class SensorHistory.
+     */
+    @Test
+    public void testOutOfOrderReadingIsDropped() throws Exception {
+        Instant time = Instant.ofEpochSecond(1000);
+        SensorHistory instance = new SensorHistory();
+        instance.record(1, time);
+        instance.record(2, time);
+        try {
+            instance.record(3, time.minusMillis(1));
+            fail("Expected an out of order fault");
+        } catch (RobotFaultException e) {
+            assertEquals(RobotFaultException.OUT_OF_ORDER_UPDATE, e.getFaultCode());
+        }
+        assertEquals(2, instance.size());
+        assertEquals(2, instance.getValue(0), 0);
+    }
+
+    /**
+     * Test of getStaleness and isStale methods, of class SensorHistory.
+     */
+    @Test
+    public void testStaleness() throws Exception {
+        Instant time = Instant.ofEpochSecond(1000);
+        SensorHistory instance = new SensorHistory();
+        assertNull(instance.getStaleness(time));
+        assertTrue(instance.isStale(Duration.ofSeconds(1), time));
+        instance.record(1, time);
+        assertEquals(Duration.ofMillis(500), instance.getStaleness(time.plusMillis(500)));
+        assertFalse(instance.isStale(Duration.ofSeconds(1), time.plusMillis(500)));
+        assertTrue(instance.isStale(Duration.ofSeconds(1), time.plusMillis(1500)));
+    }
+
+    /**
+     * Test of getRate method, of class SensorHistory.
+     */
+    @Test
+    public void testRate() throws Exception {
+        Instant start = Instant.ofEpochSecond(1000);
+        SensorHistory instance = new SensorHistory(4);
+        instance.record(0, start);
+        assertEquals(0, instance.getRate(), 0);
+        for (int i = 1; i < 10; i++) {
+            instance.record(i, start.plusMillis(i * 20));
+        }
+        assertEquals(50, instance.getRate(), 0.01);
+    }
+
+    @Test
+    public void testNullTimeMeansNow() throws Exception {
+        Instant before = Instant.now();
+        SensorHistory instance = new SensorHistory();
+        instance.record(1, null);
+        Instant recorded = instance.getLastUpdated();
+        assertFalse(recorded.isBefore(before));
+        assertFalse(recorded.isAfter(Instant.now()));
+    }
+}
@@ -11,7 +11,6 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.concurrent.TimeoutException;
 
-import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -21,7 +20,7 @@ public class StateModuleTest {
     private LocomotionState locomotionState; // TODO: mock this
     private ExcavationState excavationState;
     private DepositionState depositionState;
-    private AutonomyState autonomyState;
+    private LocalizationObstacleState locObsState;
     private StateModule module;
 
     public StateModuleTest() { }
@@ -38,14 +37,8 @@ public class StateModuleTest {
         locomotionState = new LocomotionState();
         excavationState = new ExcavationState();
         depositionState = new DepositionState();
-        autonomyState = new AutonomyState();
-        module = new StateModule(locomotionState, excavationState, depositionState, autonomyState, "amq.topic");
-        module.start();
-    }
-
-    @After
-    public void tearDown() throws IOException, TimeoutException, InterruptedException {
-        module.stop();
+        locObsState = new LocalizationObstacleState();
+        module = new StateModule(locomotionState, excavationState, depositionState, locObsState, "amq.topic");
     }
 
     /**
@@ -54,6 +47,7 @@ public class StateModuleTest {
     /*
     @Test
     public void testRun() throws Exception {
+        module.start();
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
         Connection connection = factory.newConnection();
@@ -72,6 +66,7 @@ public class StateModuleTest {
 
         float result = locomotionState.getWheelRpm(LocomotionState.Wheel.BACK_LEFT);
         assertEquals(42F, result, 0);
+        module.stop();
     }
     */
 
@@ -81,15 +76,17 @@ public class StateModuleTest {
     /*
     @Test
     public void testSubscribe() throws Exception {
+        module.start();
         Thread.sleep(1000);
         ConnectionFactory factory = new ConnectionFactory();
         factory.setHost("localhost");
         Connection connection = factory.newConnection();
         Channel channel = connection.createChannel();
 
-        // Create queue
+        // Create queue, named after the reply key so the module can see if it falls behind
         channel.exchangeDeclare("amq.topic", "topic", true);
-        String queueName = channel.queueDeclare().getQueue();
+        String queueName = "stateModuleTest";
+        channel.queueDeclare(queueName, false, false, false, null);
         channel.queueBind(queueName, "amq.topic", queueName);
 
         // Queue is known to be empty
@@ -119,6 +116,43 @@ public class StateModuleTest {
         byte[] body = response.getBody();
         Messages.State s = Messages.State.parseFrom(body);
         System.out.println(s);
+        module.stop();
     }
     */
+
+    /**
+     * Test of downsampling a subscriber that stops consuming: states pile up in its queue, so it
+     * is sent fewer of them, and more again once it catches up
+     */
+    @Test
+    public void testSubscriberThatStopsConsumingIsDownsampled() {
+        StateModule.Subscription subscription = new StateModule.Subscription("ui", 100, 0x7F, false);
+        // Consuming every state as it is sent
+        for (int tick = 0; tick < 20; tick++) {
+            assertFalse(subscription.skipTick());
+            subscription.probed(0);
+        }
+        assertEquals(1, new StateModule.SubscriberStats(subscription).downsample);
+
+        // Stops consuming, so every state sent waits in its queue
+        int waiting = 0;
+        for (int tick = 0; tick < 200; tick++) {
+            if (!subscription.skipTick()) {
+                waiting++;
+            }
+            subscription.probed(waiting);
+        }
+        StateModule.SubscriberStats stats = new StateModule.SubscriberStats(subscription);
+        assertEquals(16, stats.downsample);
+        assertEquals(waiting, stats.queueDepth);
+        // Sent every tick until more than 4 waited, then fewer and fewer
+        assertTrue("sent " + waiting + " states in 200 ticks", waiting < 40);
+
+        // Catches up on what waited
+        for (int tick = 0; tick < 100; tick++) {
+            subscription.skipTick();
+            subscription.probed(0);
+        }
+        assertEquals(1, new StateModule.SubscriberStats(subscription).downsample);
+    }
 }